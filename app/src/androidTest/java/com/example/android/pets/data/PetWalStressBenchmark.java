@@ -0,0 +1,197 @@
+package com.example.android.pets.data;
+
+import android.content.Context;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+import android.test.RenamingDelegatingContext;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One writer thread inserting pets one at a time while N reader threads page through the
+ * catalog, once with the database in write-ahead logging mode and once in rollback journal mode.
+ * Each reader times {@link #READS_PER_READER} catalog pages; their samples are pooled into read
+ * latency percentiles per mode, reported alongside the rows per second the writer managed.
+ * <p>
+ * This has to run on a device: the JVM benchmarks' SQLite funnels every connection through one
+ * thread, so readers queue behind the writer whatever the journal mode. Run it with
+ * {@code ./gradlew :app:connectedAndroidTest} and read the results from logcat under
+ * {@value #LOG_TAG} or from the instrumentation status. The instrumentation argument
+ * {@code walReaders} chooses the reader counts, for example {@code -e walReaders 1,2,8}.
+ * <p>
+ * The provider runs against its own database files, prefixed {@value #FILE_PREFIX}, so the
+ * app's pets are left alone.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PetWalStressBenchmark {
+    private static final String LOG_TAG = "PetWalStress";
+    private static final String FILE_PREFIX = "walstress.";
+    private static final String DEFAULT_READER_COUNTS = "1,4";
+    private static final int TABLE_SIZE = 10000;
+    private static final int WARMUP_READS = 20;
+    private static final int READS_PER_READER = 200;
+    // Matches CatalogActivity
+    private static final int PAGE_SIZE = 50;
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_GENDER};
+
+    private final Random mRandom = new Random(7);
+
+    @Test
+    public void benchmarkWal() throws Exception {
+        String readerCounts = InstrumentationRegistry.getArguments().getString("walReaders", DEFAULT_READER_COUNTS);
+        for (String readers : readerCounts.split(",")) {
+            int readerCount = Integer.parseInt(readers.trim());
+            runWithJournal(false, readerCount);
+            runWithJournal(true, readerCount);
+        }
+    }
+
+    private void runWithJournal(boolean writeAheadLogging, int readerCount) throws Exception {
+        Context context = new RenamingDelegatingContext(InstrumentationRegistry.getTargetContext(), FILE_PREFIX);
+        context.deleteDatabase(PetDBHelper.DATABASE_NAME);
+        PetProvider provider = new PetProvider();
+        ProviderInfo info = new ProviderInfo();
+        info.authority = PetContract.CONTENT_AUTHORITY;
+        provider.attachInfo(context, info);
+        try {
+            // The helper turns WAL on by default; this has to happen before the database is opened
+            provider.getDBHelper(0).setWriteAheadLoggingEnabled(writeAheadLogging);
+            PetDatasetGenerator generator = new PetDatasetGenerator();
+            for (int remaining = TABLE_SIZE; remaining > 0; ) {
+                int chunk = Math.min(PetDatasetGenerator.LOAD_CHUNK_SIZE, remaining);
+                provider.bulkInsert(PetEntry.CONTENT_URI, generator.next(chunk));
+                remaining -= chunk;
+            }
+            stress(provider, (writeAheadLogging ? "wal" : "rollback") + "-" + readerCount + "readers", readerCount);
+        } finally {
+            provider.shutdown();
+            context.deleteDatabase(PetDBHelper.DATABASE_NAME);
+        }
+    }
+
+    /**
+     * Starts the writer and {@code readerCount} readers together and keeps the writer going until
+     * every reader has finished, then reports the pooled read latencies and the writer's rate.
+     */
+    private void stress(final PetProvider provider, String name, int readerCount) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean readersDone = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final long[] writes = new long[1];
+
+        final PetDatasetGenerator writerGenerator = new PetDatasetGenerator(mRandom.nextLong());
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    while (!readersDone.get()) {
+                        provider.insert(PetEntry.CONTENT_URI, writerGenerator.next());
+                        writes[0]++;
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        });
+
+        final long[][] samples = new long[readerCount][READS_PER_READER];
+        Thread[] readers = new Thread[readerCount];
+        for (int i = 0; i < readers.length; i++) {
+            final long[] readerSamples = samples[i];
+            final PetDatasetGenerator names = new PetDatasetGenerator(mRandom.nextLong());
+            readers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < WARMUP_READS; j++) {
+                            readPage(provider, names);
+                        }
+                        for (int j = 0; j < readerSamples.length; j++) {
+                            long startTime = System.nanoTime();
+                            readPage(provider, names);
+                            readerSamples[j] = System.nanoTime() - startTime;
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+        }
+
+        writer.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        readersDone.set(true);
+        writer.join();
+        long elapsedNanos = Math.max(System.nanoTime() - startTime, 1);
+        if (failure.get() != null) {
+            throw new IllegalStateException("Stress thread failed", failure.get());
+        }
+
+        long[] pooled = new long[readerCount * READS_PER_READER];
+        for (int i = 0; i < readerCount; i++) {
+            System.arraycopy(samples[i], 0, pooled, i * READS_PER_READER, READS_PER_READER);
+        }
+        Arrays.sort(pooled);
+        report(name, percentile(pooled, 0.50), percentile(pooled, 0.90), percentile(pooled, 0.99),
+                writes[0] * 1000000000L / elapsedNanos);
+    }
+
+    private static void report(String name, long p50Nanos, long p90Nanos, long p99Nanos, long writerRowsPerSecond) {
+        String line = String.format(Locale.US, "%-20s read p50 %9d ns  p90 %9d ns  p99 %9d ns  writer %7d rows/s",
+                name, p50Nanos, p90Nanos, p99Nanos, writerRowsPerSecond);
+        Log.i(LOG_TAG, line);
+        Bundle status = new Bundle();
+        status.putString(name, line);
+        InstrumentationRegistry.getInstrumentation().sendStatus(0, status);
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+    }
+
+    // A catalog page starting at a random name, as when scrolling the list
+    private static void readPage(PetProvider provider, PetDatasetGenerator names) {
+        String afterName = names.next().getAsString(PetEntry.COLUMN_PET_NAME);
+        Cursor cursor = provider.query(PetEntry.buildPageUri(PAGE_SIZE, PetEntry.COLUMN_PET_NAME, afterName, 0),
+                CATALOG_PROJECTION, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getString(1);
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -18,48 +18,151 @@ package com.example.android.pets;
 import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentUris;
-import android.content.ContentValues;
-import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.Loader;
 import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Trace;
 import android.support.design.widget.FloatingActionButton;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.LinearLayoutManager;
+import android.support.v7.widget.RecyclerView;
+import android.text.Editable;
+import android.text.TextUtils;
+import android.text.TextWatcher;
+import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
-import android.widget.ListView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
 import android.widget.RelativeLayout;
+import android.widget.Spinner;
 import android.widget.Toast;
 
+import com.example.android.pets.data.PetCollation;
 import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
-import com.example.android.pets.data.PetDBHelper;
+import com.example.android.pets.data.PetCriteria;
+import com.example.android.pets.data.PetDatasetGenerator;
 import com.example.android.pets.data.PetProvider;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Displays list of pets that were entered and stored in the app.
  */
 public class CatalogActivity extends AppCompatActivity implements LoaderManager.LoaderCallbacks<Cursor> {
     private final String LOG_TAG = PetProvider.class.getSimpleName();
-    private PetDBHelper mDBHelper;
     private final int zero = 0;
     private final int ASYNC_LOADER_ID = 0;
     private final int CURSOR_LOADER_ID = 1;
-    private ListView listView;
+    private final int badID = -1;
+    private static final String[] PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_GENDER};
+    private RecyclerView listView;
+    private LinearLayoutManager layoutManager;
     private RelativeLayout emptyViewGroup;
     private PetCursorAdapter cursorAdapter;
+    private static final int PAGE_SIZE = 50;
+    private static final int DUMMY_PET_COUNT = 100;
+    // Pages after the first; the first page is owned by the CursorLoader
+    private final List<Cursor> mExtraPages = new ArrayList<>();
+    private Cursor mFirstPage;
+    private boolean mHasMorePages = false;
+    private boolean mLoadingPage = false;
+    // Bumped whenever the first page reloads so late pages from an older listing are dropped
+    private int mPageGeneration = zero;
+    // Search results come back as one limited page instead of keyset pages
+    private static final int SEARCH_LIMIT = 200;
+    private static final long FILTER_DEBOUNCE_MILLIS = 250;
+    // Every sort is served by an index: the primary key, pets_name_index or pets_weight_index
+    private static final String[] SORT_KEYS = {PetEntry._ID, PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_WEIGHT};
+    private EditText mFilterEditText;
+    private String mFilterText = "";
+    private int mFilterGender = badID;
+    private String mSortKey = PetEntry._ID;
+    // What the current listing was loaded with, for fetching its later pages
+    private String mListingSortKey = PetEntry._ID;
+    private String mListingSelection;
+    private String[] mListingSelectionArgs;
+    private int mListingGender = badID;
+    private boolean mListingIsSearch = false;
+    // Change sequence the displayed rows are current to; see applyChanges()
+    private long mListingSequence = PetCatalogLoader.NO_SEQUENCE;
+    // The displayed rows once changes have been applied to them, replacing the loaded pages
+    private Cursor mPatchedRows;
+    private boolean mFetchingChanges = false;
+    private boolean mChangesPending = false;
+    // Beyond this many changed pets, reloading the first page is cheaper than patching
+    private static final int MAX_APPLIED_CHANGES = PAGE_SIZE;
+    private final PetCatalogLoader.ChangeListener mListingChangeListener = new PetCatalogLoader.ChangeListener() {
+        @Override
+        public boolean onListingChanged(PetCatalogLoader loader) {
+            // Search matches come from the full-text index, which the rows alone can't reproduce
+            if (mListingIsSearch || mListingSequence == PetCatalogLoader.NO_SEQUENCE || mFirstPage == null) {
+                return false;
+            }
+            mChangesPending = true;
+            if (!mFetchingChanges) {
+                fetchChanges();
+            }
+            return true;
+        }
+    };
+    private final Handler mFilterHandler = new Handler();
+    private final Runnable mRestartLoaderRunnable = new Runnable() {
+        @Override
+        public void run() {
+            restartListing();
+        }
+    };
+    /**
+     * Boolean extra that starts the catalog without its saved snapshot, for comparing startup
+     * times: adb shell am start -S -W -n com.example.android.pets/.CatalogActivity --ez skip_snapshot true
+     */
+    public static final String EXTRA_SKIP_SNAPSHOT = "skip_snapshot";
+    // How long the default listing has to stay unchanged before it is saved as the snapshot
+    private static final long SNAPSHOT_SETTLE_MILLIS = 500;
+    private PetCatalogSnapshot mSnapshot;
+    // Rows from the snapshot, shown until the first live page replaces them
+    private Cursor mSnapshotCursor;
+    private long mCreateNanos;
+    private boolean mLiveRowsTraced = false;
+    private boolean mSnapshotPending = false;
+    private final Runnable mSaveSnapshotRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveSnapshot();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        mCreateNanos = System.nanoTime();
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
-        mDBHelper = new PetDBHelper(this);
+        mSnapshot = new PetCatalogSnapshot(this);
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -69,14 +172,15 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
             }
         });
 
-        listView = (ListView) findViewById(R.id.list);
+        listView = (RecyclerView) findViewById(R.id.list);
         emptyViewGroup = (RelativeLayout) findViewById(R.id.empty_view);
+        layoutManager = new LinearLayoutManager(this);
+        listView.setLayoutManager(layoutManager);
+        listView.setHasFixedSize(true);
         cursorAdapter = new PetCursorAdapter(this, null);
-        listView.setAdapter(cursorAdapter);
-        listView.setEmptyView(emptyViewGroup);
-        listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+        cursorAdapter.setOnItemClickListener(new PetCursorAdapter.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> adapterView, View view, int position, long id) {
+            public void onItemClick(View view, int position, long id) {
                 Intent intent = new Intent(getApplicationContext(), EditorActivity.class);
                 Bundle bundle = new Bundle();
                 bundle.putString(PetEntry._ID, String.valueOf(position));
@@ -87,17 +191,195 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
                 startActivity(intent);
             }
         });
+        listView.setAdapter(cursorAdapter);
+        listView.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                int totalItemCount = cursorAdapter.getItemCount();
+                if (totalItemCount > zero && layoutManager.findLastVisibleItemPosition() >= totalItemCount - PAGE_SIZE / 2) {
+                    loadNextPage();
+                }
+            }
+        });
+        setupFilterBar();
         LoaderManager loaderManager = getLoaderManager();
+        // A retained loader redelivers its rows straight away, so the snapshot only helps a fresh start
+        if (loaderManager.getLoader(CURSOR_LOADER_ID) == null && !getIntent().getBooleanExtra(EXTRA_SKIP_SNAPSHOT, false)) {
+            showSnapshot();
+        }
+        traceFirstRow();
         loaderManager.initLoader(CURSOR_LOADER_ID, null, this).forceLoad();
     }
 
+    /**
+     * Shows the rows saved by the last run while the database opens. The adapter diffs by _ID,
+     * so when the live page arrives only the rows that changed since are redrawn.
+     */
+    private void showSnapshot() {
+        boolean trace = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+        if (trace) {
+            Trace.beginSection("CatalogActivity.readSnapshot");
+        }
+        try {
+            mSnapshotCursor = mSnapshot.read();
+        } finally {
+            if (trace) {
+                Trace.endSection();
+            }
+        }
+        if (mSnapshotCursor != null) {
+            cursorAdapter.swapCursor(mSnapshotCursor);
+            updateEmptyView();
+        }
+    }
+
+    /**
+     * Logs the time from onCreate() to the first frame that draws a row, and whether the row came
+     * from the snapshot or the database. On API 19+ that frame is also reported to the platform
+     * as fully drawn, so "am start -W" and the ActivityManager log include it.
+     */
+    private void traceFirstRow() {
+        final ViewTreeObserver observer = listView.getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                if (listView.getChildCount() > zero) {
+                    listView.getViewTreeObserver().removeOnPreDrawListener(this);
+                    boolean fromSnapshot = mSnapshotCursor != null && cursorAdapter.getCursor() == mSnapshotCursor;
+                    Log.i(LOG_TAG, "Startup: first row drawn after " + elapsedSinceCreateMillis()
+                            + " ms from " + (fromSnapshot ? "snapshot" : "database"));
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+                        reportFullyDrawn();
+                    }
+                }
+                return true;
+            }
+        });
+    }
+
+    private long elapsedSinceCreateMillis() {
+        return (System.nanoTime() - mCreateNanos) / 1000000;
+    }
+
+    // Saves the top of the default listing, which is what the next launch starts on
+    private void saveSnapshot() {
+        mFilterHandler.removeCallbacks(mSaveSnapshotRunnable);
+        mSnapshotPending = false;
+        if (mFirstPage == null || mFirstPage.isClosed() || !isDefaultListing()) {
+            return;
+        }
+        final byte[] contents = PetCatalogSnapshot.encode(mFirstPage);
+        // Serial, so an older snapshot can never be written over a newer one
+        AsyncTask.SERIAL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                mSnapshot.write(contents);
+            }
+        });
+    }
+
+    private boolean isDefaultListing() {
+        return !mListingIsSearch && mListingSelection == null && PetEntry._ID.equals(mListingSortKey);
+    }
+
+    private void closeSnapshotCursor() {
+        if (mSnapshotCursor != null) {
+            mSnapshotCursor.close();
+            mSnapshotCursor = null;
+        }
+    }
+
+    /**
+     * Typing restarts the listing once input pauses for FILTER_DEBOUNCE_MILLIS; the spinners
+     * restart it straight away. Restarting cancels a query that is still running, so at most
+     * one listing query is in flight.
+     */
+    private void setupFilterBar() {
+        mFilterEditText = (EditText) findViewById(R.id.filter_text);
+        mFilterEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable editable) {
+                String filterText = editable.toString().trim();
+                if (!filterText.equals(mFilterText)) {
+                    mFilterText = filterText;
+                    mFilterHandler.removeCallbacks(mRestartLoaderRunnable);
+                    mFilterHandler.postDelayed(mRestartLoaderRunnable, FILTER_DEBOUNCE_MILLIS);
+                }
+            }
+        });
+
+        Spinner genderSpinner = (Spinner) findViewById(R.id.filter_gender);
+        ArrayAdapter genderAdapter = ArrayAdapter.createFromResource(this,
+                R.array.array_gender_filter_options, android.R.layout.simple_spinner_item);
+        genderAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        genderSpinner.setAdapter(genderAdapter);
+        genderSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                // Position 0 is "All"; the rest follow the gender constants
+                int gender = position == zero ? badID : position - 1;
+                if (gender != mFilterGender) {
+                    mFilterGender = gender;
+                    restartListing();
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+
+        Spinner sortSpinner = (Spinner) findViewById(R.id.filter_sort);
+        ArrayAdapter sortAdapter = ArrayAdapter.createFromResource(this,
+                R.array.array_sort_options, android.R.layout.simple_spinner_item);
+        sortAdapter.setDropDownViewResource(android.R.layout.simple_dropdown_item_1line);
+        sortSpinner.setAdapter(sortAdapter);
+        sortSpinner.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (!SORT_KEYS[position].equals(mSortKey)) {
+                    mSortKey = SORT_KEYS[position];
+                    restartListing();
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+    }
+
+    private void restartListing() {
+        mFilterHandler.removeCallbacks(mRestartLoaderRunnable);
+        getLoaderManager().restartLoader(CURSOR_LOADER_ID, null, this).forceLoad();
+    }
+
+    /**
+     * Adds a batch of generated pets in one bulk insert. Each batch uses a new seed, logged so
+     * the same pets can be generated again.
+     */
     private void insertDummyPetData() {
-        ContentValues newValues = new ContentValues();
-        newValues.put(PetEntry.COLUMN_PET_NAME, "Tommy");
-        newValues.put(PetEntry.COLUMN_PET_BREED, "Terrier");
-        newValues.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_MALE);
-        newValues.put(PetEntry.COLUMN_PET_WEIGHT, 16);
-        Uri uri = getContentResolver().insert(PetEntry.CONTENT_URI, newValues);
+        final long seed = System.currentTimeMillis();
+        Log.i(LOG_TAG, "Inserting " + DUMMY_PET_COUNT + " test pets with seed " + seed);
+        new AsyncTask<Void, Void, Integer>() {
+            @Override
+            protected Integer doInBackground(Void... params) {
+                return new PetDatasetGenerator(seed).load(getContentResolver(), DUMMY_PET_COUNT);
+            }
+
+            @Override
+            protected void onPostExecute(Integer inserted) {
+                Toast.makeText(getApplicationContext(), getString(R.string.dummy_data_inserted, inserted), Toast.LENGTH_SHORT).show();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
     @Override
@@ -141,13 +423,29 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
     public Loader<Cursor> onCreateLoader(int loaderID, Bundle bundle) {
         switch (loaderID) {
             case CURSOR_LOADER_ID:
-                String[] projection = {
-                        PetEntry._ID,
-                        PetEntry.COLUMN_PET_NAME,
-                        PetEntry.COLUMN_PET_BREED,
-                        PetEntry.COLUMN_PET_WEIGHT,
-                        PetEntry.COLUMN_PET_GENDER};
-                return new CursorLoader(this, PetEntry.CONTENT_URI, projection, null, null, null);
+                mListingSortKey = mSortKey;
+                mListingSelection = null;
+                mListingSelectionArgs = null;
+                mListingGender = mFilterGender;
+                if (mFilterGender != badID) {
+                    PetCriteria criteria = new PetCriteria.Builder().gender(mFilterGender).build();
+                    mListingSelection = criteria.getSelection();
+                    mListingSelectionArgs = criteria.getSelectionArgs();
+                }
+                mListingIsSearch = !TextUtils.isEmpty(mFilterText);
+                if (mListingIsSearch) {
+                    // Name and breed prefixes go through the full-text index; matches are few
+                    // enough to sort without an index
+                    Uri searchUri = PetEntry.buildSearchUri(mFilterText).buildUpon()
+                            .appendQueryParameter(PetContract.QUERY_PARAM_LIMIT, String.valueOf(SEARCH_LIMIT))
+                            .build();
+                    String sortOrder = PetEntry._ID.equals(mListingSortKey) ? PetEntry._ID : mListingSortKey + ", " + PetEntry._ID;
+                    return new PetCatalogLoader(this, searchUri, PROJECTION, mListingSelection, mListingSelectionArgs, sortOrder);
+                }
+                Uri firstPageUri = PetEntry.buildPageUri(PAGE_SIZE, mListingSortKey, null, badID);
+                PetCatalogLoader loader = new PetCatalogLoader(this, firstPageUri, PROJECTION, mListingSelection, mListingSelectionArgs, null);
+                loader.setChangeListener(mListingChangeListener);
+                return loader;
             case ASYNC_LOADER_ID:
                 return null;
             default:
@@ -157,12 +455,293 @@ public class CatalogActivity extends AppCompatActivity implements LoaderManager.
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor cursor) {
+        // The first page changed, so any later pages may be stale; start paging over from here
+        closeExtraPages();
+        mFirstPage = cursor;
+        mHasMorePages = !mListingIsSearch && cursor != null && cursor.getCount() >= PAGE_SIZE;
+        mListingSequence = PetCatalogLoader.getSequence(cursor);
+        mChangesPending = false;
         cursorAdapter.swapCursor(cursor);
+        closePatchedRows();
+        closeSnapshotCursor();
+        updateEmptyView();
+        if (!mLiveRowsTraced) {
+            mLiveRowsTraced = true;
+            Log.i(LOG_TAG, "Startup: live rows loaded after " + elapsedSinceCreateMillis() + " ms");
+        }
+        scheduleSnapshot();
+        if (loader instanceof PetCatalogLoader && ((PetCatalogLoader) loader).hasChangeListener()) {
+            // A loader retained across a configuration change still points at the previous activity
+            ((PetCatalogLoader) loader).setChangeListener(mListingChangeListener);
+            // and redelivers the rows as it loaded them, without the changes applied since
+            if (PetCatalogLoader.isRedelivery(cursor) && mListingSequence != PetCatalogLoader.NO_SEQUENCE) {
+                fetchChanges();
+            }
+        }
+    }
+
+    // Waits for the listing to settle so a burst of changes is saved once
+    private void scheduleSnapshot() {
+        mFilterHandler.removeCallbacks(mSaveSnapshotRunnable);
+        mSnapshotPending = mFirstPage != null && isDefaultListing();
+        if (mSnapshotPending) {
+            mFilterHandler.postDelayed(mSaveSnapshotRunnable, SNAPSHOT_SETTLE_MILLIS);
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        closeExtraPages();
+        mFirstPage = null;
+        mHasMorePages = false;
+        mListingSequence = PetCatalogLoader.NO_SEQUENCE;
+        mFilterHandler.removeCallbacks(mSaveSnapshotRunnable);
+        mSnapshotPending = false;
         cursorAdapter.swapCursor(null);
+        closePatchedRows();
+        closeSnapshotCursor();
+        updateEmptyView();
+    }
+
+    private void updateEmptyView() {
+        emptyViewGroup.setVisibility(cursorAdapter.getItemCount() == zero ? View.VISIBLE : View.GONE);
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // Don't lose a pending snapshot if the process is killed in the background
+        if (mSnapshotPending) {
+            saveSnapshot();
+        }
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mFilterHandler.removeCallbacks(mRestartLoaderRunnable);
+        mFilterHandler.removeCallbacks(mSaveSnapshotRunnable);
+        closeExtraPages();
+        closePatchedRows();
+        closeSnapshotCursor();
+    }
+
+    private void loadNextPage() {
+        if (!mHasMorePages || mLoadingPage || mFirstPage == null) {
+            return;
+        }
+        Cursor lastPage = mExtraPages.isEmpty() ? mFirstPage : mExtraPages.get(mExtraPages.size() - 1);
+        if (!lastPage.moveToLast()) {
+            return;
+        }
+        long lastID = lastPage.getLong(lastPage.getColumnIndexOrThrow(PetEntry._ID));
+        String lastKey = PetEntry._ID.equals(mListingSortKey) ? null
+                : lastPage.getString(lastPage.getColumnIndexOrThrow(mListingSortKey));
+        mLoadingPage = true;
+        final int generation = mPageGeneration;
+        final String selection = mListingSelection;
+        final String[] selectionArgs = mListingSelectionArgs;
+        new AsyncTask<Uri, Void, Cursor>() {
+            @Override
+            protected Cursor doInBackground(Uri... uris) {
+                Cursor cursor = getContentResolver().query(uris[0], PROJECTION, selection, selectionArgs, null);
+                if (cursor != null) {
+                    cursor.getCount();      // fill the window off the UI thread
+                }
+                return cursor;
+            }
+
+            @Override
+            protected void onPostExecute(Cursor cursor) {
+                mLoadingPage = false;
+                if (cursor == null) {
+                    return;
+                }
+                if (generation != mPageGeneration || isFinishing()) {
+                    cursor.close();
+                    return;
+                }
+                mHasMorePages = cursor.getCount() >= PAGE_SIZE;
+                mExtraPages.add(cursor);
+                Cursor[] pages = new Cursor[mExtraPages.size() + 1];
+                pages[0] = mFirstPage;
+                for (int i = 0; i < mExtraPages.size(); i++) {
+                    pages[i + 1] = mExtraPages.get(i);
+                }
+                // Not closed by the adapter; the pages it wraps are closed individually
+                cursorAdapter.swapCursor(new MergeCursor(pages));
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, PetEntry.buildPageUri(PAGE_SIZE, mListingSortKey, lastKey, lastID));
+    }
+
+    private void closeExtraPages() {
+        mPageGeneration++;
+        mLoadingPage = false;
+        for (Cursor page : mExtraPages) {
+            page.close();
+        }
+        mExtraPages.clear();
+    }
+
+    /**
+     * Reads the pets changed since the displayed rows were read and applies them, or reloads the
+     * listing if that isn't possible. One fetch runs at a time; changes reported meanwhile are
+     * fetched once it finishes.
+     */
+    private void fetchChanges() {
+        mChangesPending = false;
+        mFetchingChanges = true;
+        final int generation = mPageGeneration;
+        Uri changesUri = PetChangeEntry.buildChangesSinceUri(mListingSequence).buildUpon()
+                .appendQueryParameter(PetContract.QUERY_PARAM_LIMIT, String.valueOf(MAX_APPLIED_CHANGES + 1))
+                .build();
+        new AsyncTask<Uri, Void, Cursor>() {
+            @Override
+            protected Cursor doInBackground(Uri... uris) {
+                Cursor cursor = getContentResolver().query(uris[0], null, null, null, null);
+                if (cursor != null) {
+                    cursor.getCount();      // fill the window off the UI thread
+                }
+                return cursor;
+            }
+
+            @Override
+            protected void onPostExecute(Cursor cursor) {
+                mFetchingChanges = false;
+                try {
+                    // A listing that reloaded meanwhile already includes these changes
+                    if (generation != mPageGeneration || isFinishing()) {
+                        return;
+                    }
+                    if (cursor == null || !applyChanges(cursor)) {
+                        mChangesPending = false;
+                        getLoaderManager().getLoader(CURSOR_LOADER_ID).forceLoad();
+                    } else if (mChangesPending) {
+                        fetchChanges();
+                    }
+                } finally {
+                    if (cursor != null) {
+                        cursor.close();
+                    }
+                }
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, changesUri);
+    }
+
+    /**
+     * Patches the displayed rows with pets changed since they were read. Each changed pet is
+     * taken out, then put back at its sorted position if it still matches the listing and falls
+     * within the rows loaded so far; pets sorting after those arrive with the next page. The
+     * work is proportional to the changes plus the rows on screen, not to the number of pets.
+     * Returns false if the listing has to be reloaded instead.
+     */
+    private boolean applyChanges(Cursor changes) {
+        if (changes.getCount() > MAX_APPLIED_CHANGES) {
+            return false;
+        }
+        if (changes.getCount() == zero) {
+            return true;
+        }
+        int sequenceColumn = changes.getColumnIndexOrThrow(PetChangeEntry.COLUMN_SEQUENCE);
+        int operationColumn = changes.getColumnIndexOrThrow(PetChangeEntry.COLUMN_OPERATION);
+        // Null for pets that are gone
+        Map<Long, Object[]> changedRows = new HashMap<>();
+        long sequence = mListingSequence;
+        while (changes.moveToNext()) {
+            int operation = changes.getInt(operationColumn);
+            if (operation == PetChangeEntry.OPERATION_RESET) {
+                return false;
+            }
+            sequence = Math.max(sequence, changes.getLong(sequenceColumn));
+            Object[] row = readRow(changes);
+            changedRows.put((Long) row[0], operation == PetChangeEntry.OPERATION_DELETE || row[1] == null ? null : row);
+        }
+
+        Cursor current = cursorAdapter.getCursor();
+        List<Object[]> rows = new ArrayList<>(current.getCount() + changedRows.size());
+        Object[] lastLoaded = null;
+        for (int i = zero; current.moveToPosition(i); i++) {
+            Object[] row = readRow(current);
+            lastLoaded = row;
+            if (!changedRows.containsKey(row[0])) {
+                rows.add(row);
+            }
+        }
+        Comparator<Object[]> order = new ListingOrder(mListingSortKey);
+        for (Object[] row : changedRows.values()) {
+            if (row == null || (mListingGender != badID && (Integer) row[4] != mListingGender)) {
+                continue;
+            }
+            if (mHasMorePages && (lastLoaded == null || order.compare(row, lastLoaded) > zero)) {
+                continue;
+            }
+            int position = Collections.binarySearch(rows, row, order);
+            rows.add(position < zero ? -position - 1 : position, row);
+        }
+        if (rows.isEmpty() && mHasMorePages) {
+            // Nothing left to page on from
+            return false;
+        }
+
+        MatrixCursor patched = new MatrixCursor(PROJECTION, rows.size());
+        for (Object[] row : rows) {
+            patched.addRow(row);
+        }
+        // The later pages are folded into the patched rows
+        closeExtraPages();
+        Cursor previous = mPatchedRows;
+        mPatchedRows = patched;
+        mFirstPage = patched;
+        mListingSequence = sequence;
+        cursorAdapter.swapCursor(patched);
+        if (previous != null) {
+            previous.close();
+        }
+        updateEmptyView();
+        scheduleSnapshot();
+        return true;
+    }
+
+    // A row in PROJECTION order, read by column name from a listing or changes cursor
+    private static Object[] readRow(Cursor cursor) {
+        int breedColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+        int nameColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+        return new Object[] {
+                cursor.getLong(cursor.getColumnIndexOrThrow(PetEntry._ID)),
+                cursor.isNull(nameColumn) ? null : cursor.getString(nameColumn),
+                cursor.isNull(breedColumn) ? null : cursor.getString(breedColumn),
+                cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT)),
+                cursor.getInt(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER))};
+    }
+
+    private void closePatchedRows() {
+        if (mPatchedRows != null) {
+            mPatchedRows.close();
+            mPatchedRows = null;
+        }
+    }
+
+    /**
+     * Orders PROJECTION rows the way the provider pages them: by the sort key, then _ID. Names
+     * compare as SQLite's default BINARY collation does; see {@link PetCollation}.
+     */
+    private static class ListingOrder implements Comparator<Object[]> {
+        private final String mSortKey;
+
+        ListingOrder(String sortKey) {
+            mSortKey = sortKey;
+        }
+
+        @Override
+        public int compare(Object[] a, Object[] b) {
+            int result = 0;
+            if (PetEntry.COLUMN_PET_NAME.equals(mSortKey)) {
+                result = PetCollation.compareCodePoints((String) a[1], (String) b[1]);
+            } else if (PetEntry.COLUMN_PET_WEIGHT.equals(mSortKey)) {
+                result = Integer.compare((Integer) a[3], (Integer) b[3]);
+            }
+            return result != 0 ? result : Long.compare((Long) a[0], (Long) b[0]);
+        }
     }
 
     private void deletePetDialog(DialogInterface.OnClickListener discardButtonClickListener) {
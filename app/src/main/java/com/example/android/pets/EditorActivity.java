@@ -17,8 +17,10 @@ package com.example.android.pets;
 
 import android.app.AlertDialog;
 import android.app.LoaderManager;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -36,16 +38,16 @@ import android.view.MotionEvent;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
+import android.widget.AutoCompleteTextView;
 import android.widget.EditText;
 import android.widget.Spinner;
 import android.widget.Toast;
 
 import com.example.android.pets.data.PetContract;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetCriteria;
 import com.example.android.pets.data.PetDBHelper;
-
-import java.util.ArrayList;
-import java.util.List;
+import com.example.android.pets.data.PetWriteQueue;
 
 /**
  * Allows user to create a new pet or edit an existing one.
@@ -68,7 +70,6 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     private String nameString;
     private String breedString;
     private String weightString;
-    private String appendage = "=?";
 
     private boolean mPetHasChanged = false;
     private boolean mGenderSelected = false;
@@ -113,6 +114,8 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         mBreedEditText = (EditText) findViewById(R.id.edit_pet_breed);
         mWeightEditText = (EditText) findViewById(R.id.edit_pet_weight);
         mGenderSpinner = (Spinner) findViewById(R.id.spinner_gender);
+        ((AutoCompleteTextView) mNameEditText).setAdapter(new PetSuggestionAdapter(this, PetSuggestionAdapter.FIELD_NAME));
+        ((AutoCompleteTextView) mBreedEditText).setAdapter(new PetSuggestionAdapter(this, PetSuggestionAdapter.FIELD_BREED));
         mNameEditText.setOnTouchListener(mTouchListener);
         mBreedEditText.setOnTouchListener(mTouchListener);
         mWeightEditText.setOnTouchListener(mTouchListener);
@@ -225,15 +228,16 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         values.put(PetEntry.COLUMN_PET_GENDER, gender);
         values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
         values.put(PetEntry.COLUMN_PET_GENDER, gender);
-        Uri uri = getContentResolver().insert(PetEntry.CONTENT_URI, values);
+        PetWriteQueue.getInstance(this).insert(values,
+                new ToastCallback(this, R.string.update_pet_saved, R.string.update_error_saving_pet, R.string.update_error_saving_pet));
     }
 
     private void updatePet() {
-        int newRowID = badID;
         ContentValues values = new ContentValues();
         implementContentValues(values);
         if (isEditingSinglePet()) {
-            newRowID = getContentResolver().update(selectedPetURI, values, null, null);
+            PetWriteQueue.getInstance(this).update(selectedPetURI, values,
+                    new ToastCallback(this, R.string.update_pet_saved, R.string.update_pet_saved, R.string.update_error_saving_pet));
         } else {
             throw new NullPointerException("Error: Possible bad operation or null / invalid URI");
         }
@@ -258,6 +262,7 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
     }
 
     private void deletePet() {
+        recordAttributes();
         if (isValidEntryForDeletion()) {
             DialogInterface.OnClickListener deleteButtonClickListener = new DialogInterface.OnClickListener() {
                 @Override
@@ -278,51 +283,35 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         if (mGenderSelected) {
             genderInt = mGender;
         }
-        Uri uriID = null;
-        String selection = null;
-        String[] selectionArgs = null;
         try {
+            ToastCallback callback = new ToastCallback(this,
+                    R.string.update_pet_data_deleted, R.string.update_nothing_deleted, R.string.update_nothing_deleted);
             if (isEditingSinglePet()) {
-                uriID = selectedPetURI;
-            } else {
-                if (!isEmpty(nameString) || !isEmpty(breedString) || !isEmpty(weightString) || genderInt != badID) {               // if ID Entry is provided...
-                    retrieveSelectionAndSelectionArgs(selection, selectionArgs);
-                    uriID = PetEntry.CONTENT_URI;
-                }
-            }
-            int newRowID = getContentResolver().delete(uriID, selection, selectionArgs);
-            if (newRowID > zero) {
-                Toast.makeText(this, getApplicationContext().getResources().getString(R.string.update_pet_data_deleted), Toast.LENGTH_SHORT).show();
+                PetWriteQueue.getInstance(this).delete(selectedPetURI, callback);
             } else {
-                Toast.makeText(this, getApplicationContext().getResources().getString(R.string.update_nothing_deleted), Toast.LENGTH_SHORT).show();
+                PetWriteQueue.getInstance(this).delete(buildAttributeCriteria(), callback);
             }
-        } catch (IllegalArgumentException e) {
+        } catch (IllegalArgumentException | IllegalStateException e) {
             Log.e(getApplicationContext().toString(), "Error adding attributes or selecting row ID for deletion", e);
         }
     }
 
-    private void retrieveSelectionAndSelectionArgs(String selection, String[] selectionArgs) {
-        List<String> columnList = new ArrayList<>();
-        List<String> inputList = new ArrayList<>();
+    // Matches pets on every attribute the user filled in; empty when none were
+    private PetCriteria buildAttributeCriteria() {
+        PetCriteria.Builder builder = new PetCriteria.Builder();
         if (!isEmpty(nameString)) {
-            columnList.add(PetEntry.COLUMN_PET_NAME);
-            inputList.add(nameString);
+            builder.name(nameString);
         }
         if (!isEmpty(breedString)) {
-            columnList.add(PetEntry.COLUMN_PET_BREED);
-            inputList.add(breedString);
+            builder.breed(breedString);
         }
         if (!isEmpty(weightString)) {
-            columnList.add(PetEntry.COLUMN_PET_WEIGHT);
-            inputList.add(weightString);
+            builder.weight(Integer.parseInt(weightString));
         }
         if (genderInt != badID) {
-            columnList.add(PetEntry.COLUMN_PET_GENDER);
-            inputList.add(String.valueOf(genderInt));
+            builder.gender(genderInt);
         }
-        // retrieves the 1st & only item in returned list - the method converted all items in provided list into a single selection String
-        selection = (addSecondaryAttributes(appendage, columnList.toArray(new String[0])))[0];
-        selectionArgs = addSecondaryAttributes(null, inputList.toArray(new String[0]));
+        return builder.build();
     }
 
     private void recordAttributes() {
@@ -331,62 +320,35 @@ public class EditorActivity extends AppCompatActivity implements LoaderManager.L
         weightString = mWeightEditText.getText().toString().trim();
     }
 
-    private String[] addSecondaryAttributes(String s, String[] valueList) {
-        List<String> list = new ArrayList<>();
-        if (s == null) {                            // to use with selectionArgs ONLY
-            list = compileSecondaryAttributes(null, valueList);
-            return list.toArray(new String[0]);
-        } else if (s.equals(appendage)) {                                    // to use with selection ONLY
-            list = compileSecondaryAttributes(s, valueList);
-            StringBuilder builder = new StringBuilder();
-            String a = ", ";
-            for (int i = 0; i < list.size(); i++) {
-                int lastPos = list.size() - 1;
-                String ending = "";
-                if (i < lastPos) {
-                    ending = a;
-                }
-                String value = list.get(i) + ending;
-                builder.append(value);
-            }
-            return new String[] { builder.toString() };
-        } else {
-            throw new IllegalArgumentException("Incorrect appendage statement while adding secondary attributes");
+    /**
+     * Shows the outcome of a queued write. Holds only the application context, since the
+     * activity has usually finished by the time the write lands.
+     */
+    private static class ToastCallback implements PetWriteQueue.Callback {
+        private final Context mContext;
+        private final int mSuccessMessage;
+        private final int mNoRowsMessage;
+        private final int mFailureMessage;
+
+        ToastCallback(Context context, int successMessage, int noRowsMessage, int failureMessage) {
+            mContext = context.getApplicationContext();
+            mSuccessMessage = successMessage;
+            mNoRowsMessage = noRowsMessage;
+            mFailureMessage = failureMessage;
         }
-    }
 
-    private List<String> compileSecondaryAttributes(String s, String[] valueList) {
-        List<String> list = new ArrayList<>();
-        for (int i = 0; i < valueList.length; i++) {
-            if (s == null) {        // for selectionArgs String[] ONLY
-                s = "";
-                if (!isEmpty(valueList[i])) {
-                    String value = valueList[i] + s;
-                    list.add(value);
-                }
-            } else if (s.equals(appendage)) {                // for selection String ONLY
-                switch (valueList[i]) {
-                    case PetEntry.COLUMN_PET_NAME:
-                        addValuesToList(list, valueList[i], s);
-                        break;
-                    case PetEntry.COLUMN_PET_BREED:
-                        addValuesToList(list, valueList[i], s);
-                        break;
-                    case PetEntry.COLUMN_PET_WEIGHT:
-                        addValuesToList(list, valueList[i], s);
-                        break;
-                    case PetEntry.COLUMN_PET_GENDER:
-                        addValuesToList(list, valueList[i], s);
-                        break;
-                }
-            }
+        @Override
+        public void onWriteComplete(ContentProviderResult result) {
+            boolean noRows = result.uri != null
+                    ? ContentUris.parseId(result.uri) < 0
+                    : result.count == null || result.count == 0;
+            Toast.makeText(mContext, noRows ? mNoRowsMessage : mSuccessMessage, Toast.LENGTH_SHORT).show();
         }
-        return list;
-    }
 
-    private void addValuesToList(List<String> list, String string, String s) {
-        String value = string + s;
-        list.add(value);
+        @Override
+        public void onWriteFailed(Exception e) {
+            Toast.makeText(mContext, mFailureMessage, Toast.LENGTH_SHORT).show();
+        }
     }
 
     private boolean isEmpty(String value) { return TextUtils.isEmpty(value); }
@@ -0,0 +1,110 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.content.CursorLoader;
+import android.database.Cursor;
+import android.database.CursorWrapper;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+/**
+ * The catalog's CursorLoader. Each cursor it delivers carries the change sequence its rows are
+ * current to, and a {@link ChangeListener} can take over change notifications to patch the
+ * delivered rows from {@link PetChangeEntry} instead of having the loader query them all again.
+ */
+public class PetCatalogLoader extends CursorLoader {
+    private static final String LOG_TAG = PetCatalogLoader.class.getSimpleName();
+    // Sequence of cursors whose changes can't be followed; they are always reloaded
+    public static final long NO_SEQUENCE = -1;
+
+    public interface ChangeListener {
+        /**
+         * Called on the main thread when the provider reports a change while the loader is
+         * started. Return true if the change will be applied from the change feed, or false to
+         * let the loader reload.
+         */
+        boolean onListingChanged(PetCatalogLoader loader);
+    }
+
+    private static class SequencedCursor extends CursorWrapper {
+        private final long mSequence;
+        private boolean mDelivered;
+
+        SequencedCursor(Cursor cursor, long sequence) {
+            super(cursor);
+            mSequence = sequence;
+        }
+    }
+
+    private ChangeListener mChangeListener;
+
+    public PetCatalogLoader(Context context, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        super(context, uri, projection, selection, selectionArgs, sortOrder);
+    }
+
+    public void setChangeListener(ChangeListener listener) {
+        mChangeListener = listener;
+    }
+
+    // Search loaders never get one; their matches can't be patched from the change feed
+    public boolean hasChangeListener() {
+        return mChangeListener != null;
+    }
+
+    /**
+     * The change sequence {@code cursor} was read at, if it came from this loader, otherwise
+     * {@link #NO_SEQUENCE}.
+     */
+    public static long getSequence(Cursor cursor) {
+        return cursor instanceof SequencedCursor ? ((SequencedCursor) cursor).mSequence : NO_SEQUENCE;
+    }
+
+    /**
+     * Whether {@code cursor} was passed here before, marking it as passed. The LoaderManager hands
+     * a retained loader's last cursor to the activity recreated after a configuration change, and
+     * changes the previous activity applied on top of it are missing from it again.
+     */
+    public static boolean isRedelivery(Cursor cursor) {
+        if (!(cursor instanceof SequencedCursor)) {
+            return false;
+        }
+        SequencedCursor sequenced = (SequencedCursor) cursor;
+        boolean delivered = sequenced.mDelivered;
+        sequenced.mDelivered = true;
+        return delivered;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        // Read before the rows: a change landing in between is then in both the rows and the
+        // feed, and applying it twice does no harm
+        long sequence = readSequence();
+        Cursor cursor = super.loadInBackground();
+        return cursor != null ? new SequencedCursor(cursor, sequence) : null;
+    }
+
+    @Override
+    public void onContentChanged() {
+        // While stopped, the default marks the content changed so it reloads on the next start
+        if (isStarted() && mChangeListener != null && mChangeListener.onListingChanged(this)) {
+            return;
+        }
+        super.onContentChanged();
+    }
+
+    private long readSequence() {
+        try {
+            Bundle result = getContext().getContentResolver().call(PetEntry.CONTENT_URI,
+                    PetContract.METHOD_GET_CHANGE_SEQUENCE, null, null);
+            return result != null ? result.getLong(PetContract.EXTRA_CHANGE_SEQUENCE, NO_SEQUENCE) : NO_SEQUENCE;
+        } catch (IllegalArgumentException e) {
+            Log.w(LOG_TAG, "Change feed unavailable; the catalog will reload on every change", e);
+            return NO_SEQUENCE;
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDBHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The first screenful of the catalog, saved as a small binary file beside pets.db so the next
+ * launch can draw rows before the database is even opened.
+ * <p>
+ * The file is a header (magic, format version, row count) followed by each row's _ID, name,
+ * optional breed, gender and weight. Reading it is one small sequential read with no SQLite
+ * involved. A missing, truncated or older-format file reads as no snapshot. Writes go to a
+ * temporary file that is renamed over the old one, so a crash mid-write leaves the previous
+ * snapshot intact, and identical contents are not rewritten.
+ */
+public class PetCatalogSnapshot {
+    private static final String LOG_TAG = PetCatalogSnapshot.class.getSimpleName();
+    public static final String FILE_NAME = "catalog_snapshot.bin";
+    private static final int MAGIC = 0x50455453;        // "PETS"
+    private static final int FORMAT_VERSION = 1;
+    // A phone screen shows around a dozen list items; a little extra covers tablets
+    public static final int MAX_ROWS = 20;
+
+    // Column order of the cursors read() returns; the same columns the catalog projects
+    public static final String[] COLUMNS = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_GENDER};
+
+    private final File mFile;
+    // Guarded by this; contents of the last file written or read
+    private byte[] mLastContents;
+
+    public PetCatalogSnapshot(Context context) {
+        mFile = new File(context.getDatabasePath(PetDBHelper.DATABASE_NAME).getParentFile(), FILE_NAME);
+    }
+
+    /**
+     * Reads the snapshot, or returns null if there is none. Fast enough for the main thread at
+     * launch: the file is at most a few kilobytes.
+     */
+    public Cursor read() {
+        if (!mFile.exists()) {
+            return null;
+        }
+        byte[] contents = new byte[(int) mFile.length()];
+        DataInputStream input = null;
+        try {
+            input = new DataInputStream(new FileInputStream(mFile));
+            input.readFully(contents);
+            MatrixCursor cursor = decode(contents);
+            if (cursor != null) {
+                synchronized (this) {
+                    mLastContents = contents;
+                }
+            }
+            return cursor;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable catalog snapshot", e);
+            return null;
+        } finally {
+            closeQuietly(input);
+        }
+    }
+
+    /**
+     * Encodes up to {@link #MAX_ROWS} rows of {@code cursor}, which must have the catalog's
+     * columns. Call on the thread that owns the cursor; the result is written with {@link #write}.
+     */
+    public static byte[] encode(Cursor cursor) {
+        int idColumn = cursor.getColumnIndexOrThrow(PetEntry._ID);
+        int nameColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+        int breedColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+        int genderColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER);
+        int weightColumn = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_WEIGHT);
+        int rows = Math.min(cursor.getCount(), MAX_ROWS);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + rows * 48);
+        DataOutputStream output = new DataOutputStream(bytes);
+        try {
+            output.writeInt(MAGIC);
+            output.writeInt(FORMAT_VERSION);
+            output.writeInt(rows);
+            for (int i = 0; i < rows && cursor.moveToPosition(i); i++) {
+                output.writeLong(cursor.getLong(idColumn));
+                output.writeUTF(cursor.getString(nameColumn));
+                boolean hasBreed = !cursor.isNull(breedColumn);
+                output.writeBoolean(hasBreed);
+                if (hasBreed) {
+                    output.writeUTF(cursor.getString(breedColumn));
+                }
+                output.writeInt(cursor.getInt(genderColumn));
+                output.writeInt(cursor.getInt(weightColumn));
+            }
+            output.flush();
+        } catch (IOException e) {
+            // ByteArrayOutputStream doesn't throw
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Replaces the snapshot with {@code contents} unless it already holds them. Does file I/O, so
+     * call off the main thread. Returns true if the file was written.
+     */
+    public synchronized boolean write(byte[] contents) {
+        if (Arrays.equals(contents, mLastContents)) {
+            return false;
+        }
+        File temporary = new File(mFile.getPath() + ".tmp");
+        FileOutputStream output = null;
+        try {
+            output = new FileOutputStream(temporary);
+            output.write(contents);
+            // The rename must not land before the data does
+            output.getFD().sync();
+            output.close();
+            output = null;
+            if (!temporary.renameTo(mFile)) {
+                throw new IOException("Could not rename " + temporary + " to " + mFile);
+            }
+            mLastContents = contents;
+            return true;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Could not save catalog snapshot", e);
+            temporary.delete();
+            return false;
+        } finally {
+            closeQuietly(output);
+        }
+    }
+
+    private static MatrixCursor decode(byte[] contents) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(contents));
+        if (input.readInt() != MAGIC || input.readInt() != FORMAT_VERSION) {
+            return null;
+        }
+        int rows = input.readInt();
+        if (rows < 0 || rows > MAX_ROWS) {
+            return null;
+        }
+        MatrixCursor cursor = new MatrixCursor(COLUMNS, rows);
+        for (int i = 0; i < rows; i++) {
+            long id = input.readLong();
+            String name = input.readUTF();
+            String breed = input.readBoolean() ? input.readUTF() : null;
+            int gender = input.readInt();
+            int weight = input.readInt();
+            cursor.addRow(new Object[] {id, name, breed, weight, gender});
+        }
+        return cursor;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // Nothing left to do
+            }
+        }
+    }
+}
@@ -1,23 +1,61 @@
 package com.example.android.pets;
 
 import android.content.Context;
+import android.database.CharArrayBuffer;
 import android.database.Cursor;
-import android.text.TextUtils;
+import android.os.Debug;
+import android.support.v7.util.DiffUtil;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.CursorAdapter;
 import android.widget.TextView;
 
 import com.example.android.pets.data.PetContract.PetEntry;
 
 /**
- * {@link PetCursorAdapter} is an adapter for a list or grid view
- * that uses a {@link Cursor} of pet data as its data source. This adapter knows
- * how to create list items for each row of pet data in the {@link Cursor}.
+ * {@link PetCursorAdapter} is a {@link RecyclerView} adapter that uses a {@link Cursor} of pet
+ * data as its data source. Column indices and gender labels are resolved once, when the cursor
+ * is swapped, and each {@link PetViewHolder} copies text into its own reusable buffers, so
+ * binding a row does not allocate.
  */
-public class PetCursorAdapter extends CursorAdapter {
+public class PetCursorAdapter extends RecyclerView.Adapter<PetCursorAdapter.PetViewHolder> {
+    private static final String LOG_TAG = PetCursorAdapter.class.getSimpleName();
+    // Set to true to log bind timings and allocation counts; keeps logging off the bind path otherwise
+    private static final boolean DEBUG_BIND = false;
+    private static final int DEBUG_BIND_REPORT_INTERVAL = 100;
+    private static final char[] DIVIDER = " - ".toCharArray();
+    private static final char[] UNKNOWN_BREED = "[Unknown]".toCharArray();
+    private static final int INITIAL_BUFFER_SIZE = 64;
+
+    /**
+     * Receives clicks on a list item along with its adapter position and pet _ID.
+     */
+    public interface OnItemClickListener {
+        void onItemClick(View view, int position, long id);
+    }
+
+    private final LayoutInflater mInflater;
+    private final char[] mGenderMale;
+    private final char[] mGenderFemale;
+    private final char[] mGenderUnknown;
+    private OnItemClickListener mClickListener;
+
+    private Cursor mCursor;
+    private int mIdColumnIndex;
+    private int mNameColumnIndex;
+    private int mBreedColumnIndex;
+    private int mGenderColumnIndex;
+
+    // Per-row _ID and content hash of the current cursor; diffed against the next cursor on swap
+    private long[] mRowIDs = new long[0];
+    private int[] mRowHashes = new int[0];
+    private final CharArrayBuffer mHashBuffer = new CharArrayBuffer(INITIAL_BUFFER_SIZE);
+
+    private int mDebugBindCount = 0;
+    private long mDebugBindNanos = 0;
+    private long mDebugBindAllocations = 0;
 
     /**
      * Constructs a new {@link PetCursorAdapter}.
@@ -26,72 +64,190 @@ public class PetCursorAdapter extends CursorAdapter {
      * @param cursor  The cursor from which to get the data.
      */
     public PetCursorAdapter(Context context, Cursor cursor) {
-        super(context, cursor, 0 /* flags */);
+        mInflater = LayoutInflater.from(context);
+        mGenderMale = context.getString(R.string.gender_male).toCharArray();
+        mGenderFemale = context.getString(R.string.gender_female).toCharArray();
+        mGenderUnknown = context.getString(R.string.gender_unknown).toCharArray();
+        setHasStableIds(true);
+        if (DEBUG_BIND) {
+            Debug.startAllocCounting();
+        }
+        swapCursor(cursor);
+    }
+
+    public void setOnItemClickListener(OnItemClickListener listener) {
+        mClickListener = listener;
+    }
+
+    public Cursor getCursor() {
+        return mCursor;
     }
 
     /**
-     * Makes a new blank list item view. No data is set (or bound) to the views yet.
-     *
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already
-     *                moved to the correct position.
-     * @param parent  The parent to which the new view is attached to
-     * @return the newly created list item view.
+     * Swaps in a new cursor and dispatches only the row changes between the old and new data.
+     * The old cursor is returned, not closed.
      */
+    public Cursor swapCursor(Cursor newCursor) {
+        if (newCursor == mCursor) {
+            return null;
+        }
+        Cursor oldCursor = mCursor;
+        final long[] oldIDs = mRowIDs;
+        final int[] oldHashes = mRowHashes;
+        mCursor = newCursor;
+        if (newCursor != null) {
+            mIdColumnIndex = newCursor.getColumnIndexOrThrow(PetEntry._ID);
+            mNameColumnIndex = newCursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
+            mBreedColumnIndex = newCursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
+            mGenderColumnIndex = newCursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER);
+        }
+        snapshotRows(newCursor);
+        final long[] newIDs = mRowIDs;
+        final int[] newHashes = mRowHashes;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldIDs.length;
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newIDs.length;
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldIDs[oldItemPosition] == newIDs[newItemPosition];
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+                return oldHashes[oldItemPosition] == newHashes[newItemPosition];
+            }
+        }, false);
+        diff.dispatchUpdatesTo(this);
+        return oldCursor;
+    }
+
+    private void snapshotRows(Cursor cursor) {
+        int count = cursor != null ? cursor.getCount() : 0;
+        long[] ids = new long[count];
+        int[] hashes = new int[count];
+        for (int i = 0; i < count && cursor.moveToPosition(i); i++) {
+            ids[i] = cursor.getLong(mIdColumnIndex);
+            int hash = hashColumn(cursor, mNameColumnIndex);
+            hash = 31 * hash + hashColumn(cursor, mBreedColumnIndex);
+            hashes[i] = 31 * hash + cursor.getInt(mGenderColumnIndex);
+        }
+        mRowIDs = ids;
+        mRowHashes = hashes;
+    }
+
+    private int hashColumn(Cursor cursor, int columnIndex) {
+        cursor.copyStringToBuffer(columnIndex, mHashBuffer);
+        int hash = 1;
+        for (int i = 0; i < mHashBuffer.sizeCopied; i++) {
+            hash = 31 * hash + mHashBuffer.data[i];
+        }
+        return hash;
+    }
+
+    @Override
+    public int getItemCount() {
+        return mRowIDs.length;
+    }
+
     @Override
-    public View newView(Context context, Cursor cursor, ViewGroup parent) {
-        View convertView = LayoutInflater.from(context).inflate(R.layout.list_item, parent, false);
-        return convertView;
+    public long getItemId(int position) {
+        return mRowIDs[position];
+    }
+
+    @Override
+    public PetViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+        View view = mInflater.inflate(R.layout.list_item, parent, false);
+        return new PetViewHolder(view);
     }
 
     /**
-     * This method binds the pet data (in the current row pointed to by cursor) to the given
-     * list item layout. For example, the name for the current pet can be set on the name TextView
-     * in the list item layout.
-     *
-     * @param view    Existing view, returned earlier by newView() method
-     * @param context app context
-     * @param cursor  The cursor from which to get the data. The cursor is already moved to the
-     *                correct row.
+     * Binds the pet data in the cursor row at {@code position} to the holder's views, copying the
+     * name and summary into the holder's buffers rather than building new Strings.
      */
     @Override
-    public void bindView(View view, Context context, Cursor cursor) {
-        if (cursor != null && cursor.getCount() > 0) {
-            try {
-                String divider = " - ";
-                TextView tvName = (TextView) view.findViewById(R.id.name);
-                TextView tvSummary = (TextView) view.findViewById(R.id.summary);
-                int idColumnIndex = cursor.getColumnIndexOrThrow(PetEntry._ID);
-                int nameColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_NAME);
-                int breedColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED);
-                int genderColumnIndex = cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_GENDER);
-                String currentID = String.valueOf(cursor.getInt(idColumnIndex));
-                String currentName = cursor.getString(nameColumnIndex);
-                String currentBreed = cursor.getString(breedColumnIndex);
-                String currentGender = "";
-                int genderInteger = cursor.getInt(genderColumnIndex);
-                switch (genderInteger) {
-                    case PetEntry.GENDER_MALE:
-                        currentGender = context.getString(R.string.gender_male);
-                        break;
-                    case PetEntry.GENDER_FEMALE:
-                        currentGender = context.getString(R.string.gender_female);
-                        break;
-                    default:
-                        currentGender = context.getString(R.string.gender_unknown);
-                        break;
-                }
-                StringBuilder builder = new StringBuilder();
-                if (TextUtils.isEmpty(currentBreed)) {
-                    currentBreed = "[Unknown]";
-                }
-                builder.append(currentBreed).append(divider).append(currentGender);
-                tvName.setText(currentName);
-                tvSummary.setText(builder.toString());
-                Log.i("INFO", "Current Pet: " + currentID + " " + currentName + " " + currentBreed + " " + currentGender);
-            } catch (IllegalArgumentException e) {
-                Log.e("Error", "Error binding view with Cursor data", e);
+    public void onBindViewHolder(PetViewHolder holder, int position) {
+        if (mCursor == null || !mCursor.moveToPosition(position)) {
+            return;
+        }
+        long startNanos = 0;
+        long startAllocations = 0;
+        if (DEBUG_BIND) {
+            startNanos = System.nanoTime();
+            startAllocations = Debug.getThreadAllocCount();
+        }
+        mCursor.copyStringToBuffer(mNameColumnIndex, holder.mNameBuffer);
+        holder.mNameView.setText(holder.mNameBuffer.data, 0, holder.mNameBuffer.sizeCopied);
+
+        mCursor.copyStringToBuffer(mBreedColumnIndex, holder.mBreedBuffer);
+        char[] breed = holder.mBreedBuffer.data;
+        int breedLength = holder.mBreedBuffer.sizeCopied;
+        if (breedLength == 0) {
+            breed = UNKNOWN_BREED;
+            breedLength = UNKNOWN_BREED.length;
+        }
+        char[] gender;
+        switch (mCursor.getInt(mGenderColumnIndex)) {
+            case PetEntry.GENDER_MALE:
+                gender = mGenderMale;
+                break;
+            case PetEntry.GENDER_FEMALE:
+                gender = mGenderFemale;
+                break;
+            default:
+                gender = mGenderUnknown;
+                break;
+        }
+        int summaryLength = breedLength + DIVIDER.length + gender.length;
+        if (holder.mSummary.length < summaryLength) {
+            holder.mSummary = new char[summaryLength];
+        }
+        System.arraycopy(breed, 0, holder.mSummary, 0, breedLength);
+        System.arraycopy(DIVIDER, 0, holder.mSummary, breedLength, DIVIDER.length);
+        System.arraycopy(gender, 0, holder.mSummary, breedLength + DIVIDER.length, gender.length);
+        holder.mSummaryView.setText(holder.mSummary, 0, summaryLength);
+
+        if (DEBUG_BIND) {
+            mDebugBindNanos += System.nanoTime() - startNanos;
+            mDebugBindAllocations += Debug.getThreadAllocCount() - startAllocations;
+            if (++mDebugBindCount % DEBUG_BIND_REPORT_INTERVAL == 0) {
+                Log.d(LOG_TAG, "Binds: " + mDebugBindCount
+                        + ", avg " + (mDebugBindNanos / mDebugBindCount) + " ns"
+                        + ", allocations/bind " + ((double) mDebugBindAllocations / mDebugBindCount));
+            }
+        }
+    }
+
+    /**
+     * Caches the list item's views and the text buffers reused across binds.
+     */
+    public class PetViewHolder extends RecyclerView.ViewHolder implements View.OnClickListener {
+        private final TextView mNameView;
+        private final TextView mSummaryView;
+        private final CharArrayBuffer mNameBuffer = new CharArrayBuffer(INITIAL_BUFFER_SIZE);
+        private final CharArrayBuffer mBreedBuffer = new CharArrayBuffer(INITIAL_BUFFER_SIZE);
+        private char[] mSummary = new char[INITIAL_BUFFER_SIZE];
+
+        public PetViewHolder(View itemView) {
+            super(itemView);
+            mNameView = (TextView) itemView.findViewById(R.id.name);
+            mSummaryView = (TextView) itemView.findViewById(R.id.summary);
+            itemView.setOnClickListener(this);
+        }
+
+        @Override
+        public void onClick(View view) {
+            int position = getAdapterPosition();
+            if (mClickListener != null && position != RecyclerView.NO_POSITION) {
+                mClickListener.onItemClick(view, position, getItemId());
             }
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,89 @@
+package com.example.android.pets;
+
+import android.content.Context;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.Filter;
+import android.widget.Filterable;
+import android.widget.TextView;
+
+import com.example.android.pets.data.PetPrefixIndex;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * {@link PetSuggestionAdapter} feeds an AutoCompleteTextView with pet names or breeds from the
+ * in-memory {@link PetPrefixIndex}, so suggestions never touch the database.
+ */
+public class PetSuggestionAdapter extends BaseAdapter implements Filterable {
+    public static final int FIELD_NAME = 0;
+    public static final int FIELD_BREED = 1;
+    private static final int MAX_SUGGESTIONS = 8;
+
+    private final LayoutInflater mInflater;
+    private final PetPrefixIndex mIndex;
+    private final int mField;
+    private List<String> mSuggestions = Collections.emptyList();
+
+    private final Filter mFilter = new Filter() {
+        @Override
+        protected FilterResults performFiltering(CharSequence constraint) {
+            List<String> suggestions = constraint == null ? Collections.<String>emptyList()
+                    : mField == FIELD_NAME
+                    ? mIndex.suggestNames(constraint.toString(), MAX_SUGGESTIONS)
+                    : mIndex.suggestBreeds(constraint.toString(), MAX_SUGGESTIONS);
+            FilterResults results = new FilterResults();
+            results.values = suggestions;
+            results.count = suggestions.size();
+            return results;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        protected void publishResults(CharSequence constraint, FilterResults results) {
+            mSuggestions = results.values != null ? (List<String>) results.values : Collections.<String>emptyList();
+            if (results.count > 0) {
+                notifyDataSetChanged();
+            } else {
+                notifyDataSetInvalidated();
+            }
+        }
+    };
+
+    public PetSuggestionAdapter(Context context, int field) {
+        mInflater = LayoutInflater.from(context);
+        mIndex = PetPrefixIndex.getInstance(context);
+        mField = field;
+    }
+
+    @Override
+    public int getCount() {
+        return mSuggestions.size();
+    }
+
+    @Override
+    public String getItem(int position) {
+        return mSuggestions.get(position);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        TextView view = (TextView) (convertView != null ? convertView
+                : mInflater.inflate(android.R.layout.simple_dropdown_item_1line, parent, false));
+        view.setText(mSuggestions.get(position));
+        return view;
+    }
+
+    @Override
+    public Filter getFilter() {
+        return mFilter;
+    }
+}
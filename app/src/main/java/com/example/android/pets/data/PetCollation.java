@@ -0,0 +1,29 @@
+package com.example.android.pets.data;
+
+/**
+ * Text comparison matching SQLite's default BINARY collation, for code that has to order rows
+ * in Java exactly as the database would.
+ */
+public final class PetCollation {
+
+    private PetCollation() {
+    }
+
+    /**
+     * BINARY compares UTF-8 bytes, which orders the same as code points (not UTF-16 units).
+     */
+    public static int compareCodePoints(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            int codePointA = a.codePointAt(i);
+            int codePointB = b.codePointAt(j);
+            if (codePointA != codePointB) {
+                return codePointA - codePointB;
+            }
+            i += Character.charCount(codePointA);
+            j += Character.charCount(codePointB);
+        }
+        return (a.length() - i) - (b.length() - j);
+    }
+}
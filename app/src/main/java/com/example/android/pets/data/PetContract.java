@@ -1,8 +1,11 @@
 package com.example.android.pets.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.database.Cursor;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.TextUtils;
 
 import java.lang.reflect.Array;
 import java.net.PortUnreachableException;
@@ -15,20 +18,80 @@ public class PetContract {
     public static final String PATH_PETS = "pets";
     public static final String PATH_PETS_ID = PATH_PETS + "/#";
 //    public static final String PATH_PETS_NAME = PATH_PETS + "/*";
+    public static final String PATH_SEARCH = "search";
+    public static final String PATH_PETS_SEARCH = PATH_PETS + "/" + PATH_SEARCH + "/*";
+    public static final String PATH_CHANGES = "changes";
+    public static final String PATH_PETS_CHANGES = PATH_PETS + "/" + PATH_CHANGES + "/#";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_STATS_GENDER = PATH_STATS + "/gender";
+    public static final String PATH_STATS_WEIGHT = PATH_STATS + "/weight";
+    public static final String PATH_STATS_BREEDS = PATH_STATS + "/breeds";
+
+    // ContentResolver.call() methods; see PetProvider.call()
+    public static final String METHOD_VERIFY_STATS = "verify_stats";
+    public static final String METHOD_REBUILD_STATS = "rebuild_stats";
+    public static final String EXTRA_STATS_CONSISTENT = "stats_consistent";
+    public static final String EXTRA_STATS_MISMATCHES = "stats_mismatches";
+    // Returns the newest change sequence number in EXTRA_CHANGE_SEQUENCE; see PetChangeEntry
+    public static final String METHOD_GET_CHANGE_SEQUENCE = "get_change_sequence";
+    public static final String EXTRA_CHANGE_SEQUENCE = "change_sequence";
+    // Return and clear the records of one import committed so far; the import id is the call's arg.
+    // See ImportProgressEntry
+    public static final String METHOD_GET_IMPORT_CHECKPOINT = "get_import_checkpoint";
+    public static final String METHOD_CLEAR_IMPORT_CHECKPOINT = "clear_import_checkpoint";
+    public static final String EXTRA_IMPORT_RECORDS = "import_records";
+    public static final String METHOD_GET_METRICS = "get_metrics";
+    public static final String METHOD_RESET_METRICS = "reset_metrics";
+    // Bundle of per "operation:match code" entries, see PetMetrics.snapshot()
+    public static final String EXTRA_METRICS_OPERATIONS = "metrics_operations";
+    public static final String EXTRA_METRICS_STATEMENT_CACHE = "metrics_statement_cache";
+    public static final String EXTRA_METRICS_ROW_CACHE = "metrics_row_cache";
+
+    // Optional query parameter limiting the number of rows returned
+    public static final String QUERY_PARAM_LIMIT = "limit";
+    // Optional query parameter for the PETS URI; "true" returns only distinct rows
+    public static final String QUERY_PARAM_DISTINCT = "distinct";
+    // Keyset paging parameters for the PETS URI, see PetEntry.buildPageUri()
+    public static final String QUERY_PARAM_SORT_KEY = "sort_key";
+    public static final String QUERY_PARAM_AFTER_KEY = "after_key";
+    public static final String QUERY_PARAM_AFTER_ID = "after_id";
+    // Import checkpoint parameters for bulkInsert on the PETS URI, see ImportProgressEntry
+    public static final String QUERY_PARAM_IMPORT_ID = "import_id";
+    public static final String QUERY_PARAM_IMPORT_RECORDS = "import_records";
+
+    // Stream types PetProvider.openTypedAssetFile() can produce for the PETS URI
+    public static final String MIME_TYPE_CSV = "text/csv";
+    public static final String MIME_TYPE_NDJSON = "application/x-ndjson";
 
     public static final String INTENT_EXTRA = "extra";
     public static final String INTENT_ADD = "add";
     public static final String INTENT_UPDATE = "update";
     public static final String INTENT_DELETE = "delete";
 
+    /**
+     * Pets, and the URIs for reading and writing them.
+     * <p>
+     * With more than one shard ({@code R.integer.pet_shard_count}), writes spanning shards are
+     * atomic per shard only. Batches from {@link ContentResolver#applyBatch}, and updates and
+     * deletes by selection, hold a transaction on every shard they write to and commit those one
+     * after another: if one shard's commit fails, the shards committed before it keep their
+     * writes. A failure before the commits rolls back every shard. With a single shard every
+     * batch is all or nothing.
+     */
     public static class PetEntry implements BaseColumns {
         public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PETS);
+        public static final Uri CONTENT_SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, PATH_SEARCH);
         public static final String TABLE_NAME = "pets";
+        public static final String FTS_TABLE_NAME = "pets_fts";
+        // Pets joined with their breed name; the provider reads through this
+        public static final String VIEW_NAME = "pets_view";
         public static final String _ID = BaseColumns._ID;
         public static final String COLUMN_PET_NAME = "pet_name";
         public static final String COLUMN_PET_BREED = "pet_breed";
         public static final String COLUMN_PET_GENDER = "pet_gender";
         public static final String COLUMN_PET_WEIGHT = "pet_weight";
+        // Read-only BreedEntry._ID behind COLUMN_PET_BREED; null for pets without a breed
+        public static final String COLUMN_PET_BREED_ID = "pet_breed_id";
         public static final int GENDER_UNKNOWN = 0;
         public static final int GENDER_MALE = 1;
         public static final int GENDER_FEMALE = 2;
@@ -41,9 +104,53 @@ public class PetContract {
                 PetEntry.COLUMN_PET_GENDER,
                 PetEntry.COLUMN_PET_WEIGHT};
 
+        // Storage type of each PET_ATTRIBUTE_LIST column, in the same order
+        public static final int[] PET_ATTRIBUTE_TYPES = {
+                Cursor.FIELD_TYPE_STRING,
+                Cursor.FIELD_TYPE_STRING,
+                Cursor.FIELD_TYPE_INTEGER,
+                Cursor.FIELD_TYPE_INTEGER};
+
+        // Whether each PET_ATTRIBUTE_LIST column may be written as NULL, in the same order
+        public static final boolean[] PET_ATTRIBUTE_NULLABLE = {false, true, false, false};
+
+        public static final String[] PET_COLUMN_LIST = {
+                PetEntry._ID,
+                PetEntry.COLUMN_PET_NAME,
+                PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_WEIGHT};
+
         public static final String CONTENT_DIR_TYPE = ContentResolver.CURSOR_DIR_BASE_TYPE + "/vnd." + CONTENT_AUTHORITY;
         public static final String CONTENT_ITEM_TYPE = ContentResolver.CURSOR_ITEM_BASE_TYPE + "/vnd." + CONTENT_AUTHORITY;
 
+        /**
+         * Returns a URI that searches pet names and breeds for every word in {@code query},
+         * treating each word as a prefix.
+         */
+        public static Uri buildSearchUri(String query) {
+            return Uri.withAppendedPath(CONTENT_SEARCH_URI, query);
+        }
+
+        /**
+         * Returns a URI for one page of pets ordered by {@code sortKey} then _ID. Pass the sort key
+         * value and _ID of the last row of the previous page to continue after it, or a negative
+         * {@code afterId} for the first page. {@code sortKey} must be _ID, the name or the weight
+         * column, and the query projection must include both it and _ID to page further.
+         */
+        public static Uri buildPageUri(int pageSize, String sortKey, String afterKey, long afterId) {
+            Uri.Builder builder = CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_LIMIT, String.valueOf(pageSize))
+                    .appendQueryParameter(QUERY_PARAM_SORT_KEY, sortKey);
+            if (afterId >= 0) {
+                if (afterKey != null) {
+                    builder.appendQueryParameter(QUERY_PARAM_AFTER_KEY, afterKey);
+                }
+                builder.appendQueryParameter(QUERY_PARAM_AFTER_ID, String.valueOf(afterId));
+            }
+            return builder.build();
+        }
+
         public static boolean isValidGender(int input) {
             int[] list = { GENDER_MALE, GENDER_FEMALE, GENDER_UNKNOWN};
             for (int i = 0; i < list.length; i++) {
@@ -53,5 +160,116 @@ public class PetContract {
             }
             return false;
         }
+
+        public static boolean isValidName(String name) {
+            return name != null && !TextUtils.isEmpty(name);
+        }
+
+        public static boolean isValidWeight(Integer weight) {
+            return weight != null && weight > 0;
+        }
+    }
+
+    /**
+     * Dictionary of breed names. Pets store a {@link PetEntry#COLUMN_PET_BREED_ID} into this table
+     * instead of the name; the provider resolves it back to {@link PetEntry#COLUMN_PET_BREED} on
+     * read and adds new names on write, so callers keep using the name.
+     */
+    public static class BreedEntry implements BaseColumns {
+        public static final String TABLE_NAME = "breeds";
+        public static final String _ID = BaseColumns._ID;
+        public static final String COLUMN_BREED_NAME = "breed_name";
+    }
+
+    /**
+     * Feed of writes to pets, numbered by a sequence that only ever increases. A reader notes
+     * the sequence from {@link PetContract#METHOD_GET_CHANGE_SEQUENCE} before it queries pets,
+     * and afterwards queries {@link #buildChangesSinceUri} with the last sequence it has seen to
+     * learn what changed since, instead of querying everything again.
+     * <p>
+     * Each row of a changes cursor is one pet that changed: its {@link #COLUMN_SEQUENCE} and
+     * {@link #COLUMN_OPERATION} are those of the pet's latest change, and the remaining
+     * {@link PetEntry} columns hold its current values, or nulls once it has been deleted. Rows
+     * come in sequence order. Only the most recent {@link #MAX_RETAINED_CHANGES} changes are kept;
+     * a reader that fell further behind, or holds a sequence from another database, gets a single
+     * {@link #OPERATION_RESET} row instead and must query pets again.
+     */
+    public static class PetChangeEntry {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(PetEntry.CONTENT_URI, PATH_CHANGES);
+        public static final String TABLE_NAME = "pet_changes";
+        public static final String COLUMN_SEQUENCE = "change_seq";
+        public static final String COLUMN_PET_ID = "pet_id";
+        public static final String COLUMN_OPERATION = "change_op";
+        public static final int OPERATION_RESET = 0;
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+        public static final int MAX_RETAINED_CHANGES = 10000;
+
+        // Columns of a changes cursor, in order; _ID is the pet's
+        public static final String[] CHANGE_COLUMN_LIST = {
+                COLUMN_SEQUENCE,
+                COLUMN_OPERATION,
+                PetEntry._ID,
+                PetEntry.COLUMN_PET_NAME,
+                PetEntry.COLUMN_PET_BREED,
+                PetEntry.COLUMN_PET_GENDER,
+                PetEntry.COLUMN_PET_WEIGHT};
+
+        /**
+         * Returns a URI for the pets changed after {@code sequence}. Add
+         * {@link PetContract#QUERY_PARAM_LIMIT} to cap the rows returned.
+         */
+        public static Uri buildChangesSinceUri(long sequence) {
+            return ContentUris.withAppendedId(CONTENT_URI, sequence);
+        }
+    }
+
+    /**
+     * How far each resumable import has got. A bulkInsert on a URI from
+     * {@link #buildCheckpointUri} saves the import's record count in the same transaction as its
+     * rows, so after a crash the checkpoint never runs ahead of or behind the pets committed.
+     * Read it back with {@link PetContract#METHOD_GET_IMPORT_CHECKPOINT}.
+     */
+    public static class ImportProgressEntry {
+        public static final String TABLE_NAME = "import_progress";
+        public static final String COLUMN_IMPORT_ID = "import_id";
+        public static final String COLUMN_RECORDS = "records_read";
+
+        /**
+         * Returns a URI for bulk inserting the chunk that brings {@code importId} to
+         * {@code records} records read. The checkpoint is saved even if the chunk is empty.
+         */
+        public static Uri buildCheckpointUri(String importId, long records) {
+            return PetEntry.CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAM_IMPORT_ID, importId)
+                    .appendQueryParameter(QUERY_PARAM_IMPORT_RECORDS, String.valueOf(records))
+                    .build();
+        }
+    }
+
+    /**
+     * Summary tables kept current by triggers on the pets table, so totals and distributions
+     * read in constant time regardless of how many pets there are. Every row carries a
+     * {@link #COLUMN_COUNT}; the key column depends on the table.
+     */
+    public static class PetStatsEntry {
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STATS);
+        // Keyed by PetEntry.COLUMN_PET_GENDER
+        public static final Uri GENDER_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STATS_GENDER);
+        // Keyed by COLUMN_WEIGHT_BUCKET
+        public static final Uri WEIGHT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STATS_WEIGHT);
+        // Keyed by PetEntry.COLUMN_PET_BREED, most common first; honours QUERY_PARAM_LIMIT. Pets
+        // without a breed are counted under a NULL key, apart from any with an empty breed.
+        public static final Uri BREEDS_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STATS_BREEDS);
+
+        public static final String TABLE_GENDER_COUNTS = "pet_gender_counts";
+        public static final String TABLE_WEIGHT_HISTOGRAM = "pet_weight_histogram";
+        public static final String TABLE_BREED_COUNTS = "pet_breed_counts";
+        public static final String COLUMN_COUNT = "pet_count";
+        // Lower bound of the bucket divided by WEIGHT_BUCKET_SIZE
+        public static final String COLUMN_WEIGHT_BUCKET = "weight_bucket";
+        public static final int WEIGHT_BUCKET_SIZE = 5;
+        public static final int DEFAULT_TOP_BREEDS = 10;
     }
-}
\ No newline at end of file
+}
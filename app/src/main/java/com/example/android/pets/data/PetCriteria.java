@@ -0,0 +1,231 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Typed, parameterized WHERE clause over the pets' attribute columns, for attribute-scoped
+ * queries and deletes against {@link PetEntry#CONTENT_URI}.
+ * <pre>
+ * PetCriteria criteria = new PetCriteria.Builder()
+ *         .breed("Tabby")
+ *         .gender(PetEntry.GENDER_FEMALE)
+ *         .build();
+ * int deleted = criteria.delete(getContentResolver());
+ * </pre>
+ * Predicates are always ANDed together in one fixed column order, so each combination of
+ * columns compiles to exactly one SQL string. Every shape is built once per process and reused,
+ * which also lets SQLite's per-connection statement cache hit on it. The first time a shape is
+ * seen by the provider, {@link #checkIndexUse} asks SQLite for its query plan and logs a warning
+ * if it would scan the table.
+ */
+public final class PetCriteria {
+    private static final String LOG_TAG = PetCriteria.class.getSimpleName();
+
+    // Shape bits, in the order predicates appear in the compiled clause. Gender comes before
+    // weight so a combined predicate lines up with the (gender, weight) index.
+    private static final int GENDER = 1;
+    private static final int WEIGHT = 1 << 1;
+    private static final int NAME = 1 << 2;
+    private static final int BREED = 1 << 3;
+    private static final int NO_BREED = 1 << 4;
+    private static final int SHAPE_COUNT = 1 << 5;
+
+    // Compiled clause per shape; shapes combining BREED and NO_BREED are never built
+    private static final String[] sSelections = new String[SHAPE_COUNT];
+    // Clauses whose query plan has been checked, with whether it used an index
+    private static final ConcurrentHashMap<String, Boolean> sCheckedSelections = new ConcurrentHashMap<>();
+
+    static {
+        for (int shape = 1; shape < SHAPE_COUNT; shape++) {
+            sSelections[shape] = compile(shape);
+        }
+    }
+
+    private final int mShape;
+    private final String[] mSelectionArgs;
+
+    private PetCriteria(int shape, String[] selectionArgs) {
+        mShape = shape;
+        mSelectionArgs = selectionArgs;
+    }
+
+    public static class Builder {
+        private String mName;
+        private String mBreed;
+        private boolean mBreedSet = false;
+        private Integer mGender;
+        private Integer mWeight;
+
+        public Builder name(String name) {
+            if (!PetEntry.isValidName(name)) {
+                throw new IllegalArgumentException("Invalid name: " + name);
+            }
+            mName = name;
+            return this;
+        }
+
+        /**
+         * Matches pets of {@code breed}, or pets with no breed when it is null.
+         */
+        public Builder breed(String breed) {
+            mBreed = breed;
+            mBreedSet = true;
+            return this;
+        }
+
+        public Builder gender(int gender) {
+            if (!PetEntry.isValidGender(gender)) {
+                throw new IllegalArgumentException("Invalid gender: " + gender);
+            }
+            mGender = gender;
+            return this;
+        }
+
+        public Builder weight(int weight) {
+            if (!PetEntry.isValidWeight(weight)) {
+                throw new IllegalArgumentException("Invalid weight: " + weight);
+            }
+            mWeight = weight;
+            return this;
+        }
+
+        public PetCriteria build() {
+            int shape = 0;
+            List<String> args = new ArrayList<>(4);
+            if (mGender != null) {
+                shape |= GENDER;
+                args.add(String.valueOf(mGender));
+            }
+            if (mWeight != null) {
+                shape |= WEIGHT;
+                args.add(String.valueOf(mWeight));
+            }
+            if (mName != null) {
+                shape |= NAME;
+                args.add(mName);
+            }
+            if (mBreedSet) {
+                if (mBreed != null) {
+                    shape |= BREED;
+                    args.add(mBreed);
+                } else {
+                    shape |= NO_BREED;
+                }
+            }
+            return new PetCriteria(shape, args.toArray(new String[args.size()]));
+        }
+    }
+
+    /**
+     * True when no predicate was set. An empty criteria matches every pet, so {@link #delete}
+     * refuses it.
+     */
+    public boolean isEmpty() {
+        return mShape == 0;
+    }
+
+    /**
+     * The compiled WHERE clause, or null when empty.
+     */
+    public String getSelection() {
+        return sSelections[mShape];
+    }
+
+    public String[] getSelectionArgs() {
+        return mSelectionArgs.clone();
+    }
+
+    private static String compile(int shape) {
+        StringBuilder builder = new StringBuilder();
+        appendPredicate(builder, shape, GENDER, PetEntry.COLUMN_PET_GENDER + " = ?");
+        appendPredicate(builder, shape, WEIGHT, PetEntry.COLUMN_PET_WEIGHT + " = ?");
+        appendPredicate(builder, shape, NAME, PetEntry.COLUMN_PET_NAME + " = ?");
+        // Breeds match on the stored id, so the breed index is used even where SQLite won't turn
+        // the view's outer join around to start from the dictionary
+        appendPredicate(builder, shape, BREED, PetEntry.COLUMN_PET_BREED_ID + " = (SELECT " + BreedEntry._ID
+                + " FROM " + BreedEntry.TABLE_NAME + " WHERE " + BreedEntry.COLUMN_BREED_NAME + " = ?)");
+        appendPredicate(builder, shape, NO_BREED, PetEntry.COLUMN_PET_BREED_ID + " IS NULL");
+        return builder.toString();
+    }
+
+    private static void appendPredicate(StringBuilder builder, int shape, int bit, String predicate) {
+        if ((shape & bit) != 0) {
+            if (builder.length() > 0) {
+                builder.append(" AND ");
+            }
+            builder.append(predicate);
+        }
+    }
+
+    public Cursor query(ContentResolver resolver, String[] projection, String sortOrder) {
+        return resolver.query(PetEntry.CONTENT_URI, projection, getSelection(), getSelectionArgs(), sortOrder);
+    }
+
+    /**
+     * Deletes the matching pets and returns how many were deleted.
+     *
+     * @throws IllegalStateException if the criteria is empty
+     */
+    public int delete(ContentResolver resolver) {
+        if (isEmpty()) {
+            throw new IllegalStateException("Refusing to delete with empty criteria");
+        }
+        return resolver.delete(PetEntry.CONTENT_URI, getSelection(), getSelectionArgs());
+    }
+
+    /**
+     * Checks, once per process, whether a compiled criteria clause is served by an index, logging
+     * a warning if SQLite plans a full table scan instead. Selections that did not come from a
+     * PetCriteria are ignored. Returns false only for a checked clause that scans.
+     */
+    static boolean checkIndexUse(SQLiteDatabase db, String selection, String[] selectionArgs) {
+        if (selection == null) {
+            return true;
+        }
+        Boolean indexed = sCheckedSelections.get(selection);
+        if (indexed != null) {
+            return indexed;
+        }
+        if (!isCompiledSelection(selection)) {
+            return true;
+        }
+        indexed = true;
+        Cursor plan = db.rawQuery("EXPLAIN QUERY PLAN SELECT " + PetEntry._ID + " FROM " + PetEntry.VIEW_NAME
+                + " WHERE " + selection, selectionArgs);
+        try {
+            int detailColumn = plan.getColumnIndexOrThrow("detail");
+            while (plan.moveToNext()) {
+                String detail = plan.getString(detailColumn);
+                // "SCAN TABLE pets" without "USING ... INDEX" is a full scan
+                if (detail.startsWith("SCAN") && !detail.contains("INDEX")) {
+                    indexed = false;
+                    Log.w(LOG_TAG, "Criteria \"" + selection + "\" scans the pets table: " + detail);
+                }
+            }
+        } finally {
+            plan.close();
+        }
+        sCheckedSelections.put(selection, indexed);
+        return indexed;
+    }
+
+    private static boolean isCompiledSelection(String selection) {
+        for (String compiled : sSelections) {
+            // Identity first: in-process callers pass the cached instance straight through
+            if (compiled == selection || selection.equals(compiled)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
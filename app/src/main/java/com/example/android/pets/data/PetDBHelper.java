@@ -2,23 +2,484 @@ package com.example.android.pets.data;
 
 import android.Manifest;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Build;
+import android.util.Log;
 
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.ImportProgressEntry;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
 
 public class PetDBHelper extends SQLiteOpenHelper {
+    private static final String LOG_TAG = PetDBHelper.class.getSimpleName();
     private Context mContext;
     public static final String DATABASE_NAME = "pets.db";
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 8;
+    private static final int BASE_VERSION = 1;
+
+    // WAL pages after which a commit triggers an automatic passive checkpoint (SQLite default is 1000)
+    public static final int DEFAULT_WAL_AUTOCHECKPOINT_PAGES = 1000;
+    // Upper bound the -wal file is truncated back to after a checkpoint
+    public static final long WAL_JOURNAL_SIZE_LIMIT_BYTES = 4 * 1024 * 1024;
+    private int mAutoCheckpointPages = DEFAULT_WAL_AUTOCHECKPOINT_PAGES;
+    // Bumped whenever this helper creates or migrates the schema; see getSchemaGeneration()
+    private volatile int mSchemaGeneration = 0;
+    // New pets get _IDs above this; see PetShardedStore
+    private final long mIdBase;
+
+    /**
+     * How much work {@link #checkpoint(CheckpointMode)} may do. See the SQLite documentation for
+     * PRAGMA wal_checkpoint; TRUNCATE needs SQLite 3.8.8 or newer.
+     */
+    public enum CheckpointMode {
+        PASSIVE, FULL, RESTART, TRUNCATE
+    }
+
+    public static final String INDEX_PET_NAME = "pets_name_index";
+    public static final String INDEX_PET_BREED = "pets_breed_index";
+    public static final String INDEX_PET_GENDER_WEIGHT = "pets_gender_weight_index";
+    public static final String INDEX_PET_WEIGHT = "pets_weight_index";
+    public static final String TRIGGER_FTS_INSERT = "pets_fts_insert";
+    public static final String TRIGGER_FTS_UPDATE = "pets_fts_update";
+    public static final String TRIGGER_FTS_DELETE = "pets_fts_delete";
+    public static final String TRIGGER_STATS_INSERT = "pets_stats_insert";
+    public static final String TRIGGER_STATS_UPDATE = "pets_stats_update";
+    public static final String TRIGGER_STATS_DELETE = "pets_stats_delete";
+    public static final String TRIGGER_CHANGES_INSERT = "pets_changes_insert";
+    public static final String TRIGGER_CHANGES_UPDATE = "pets_changes_update";
+    public static final String TRIGGER_CHANGES_DELETE = "pets_changes_delete";
+    public static final String INDEX_BREED_COUNT = "pet_breed_counts_count_index";
+    private static final String REBUILD_TABLE_NAME = "pets_rebuild";
+
+    /**
+     * A single schema step that brings the database up to {@link #getVersion()}.
+     */
+    public static abstract class Migration {
+        private final int mVersion;
+
+        Migration(int version) {
+            mVersion = version;
+        }
+
+        public int getVersion() {
+            return mVersion;
+        }
+
+        public abstract void migrate(SQLiteDatabase db);
+    }
+
+    // Ordered by version. Every step's version must be <= DATABASE_VERSION.
+    private static final Migration[] MIGRATIONS = {
+            new Migration(2) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    // Cover the catalog's filter and sort columns. Each index carries the rowid,
+                    // so it also serves (column, _ID) keyset ordering.
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_NAME + " ON "
+                            + PetEntry.TABLE_NAME + "(" + PetEntry.COLUMN_PET_NAME + ");");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_BREED + " ON "
+                            + PetEntry.TABLE_NAME + "(" + PetEntry.COLUMN_PET_BREED + ");");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_GENDER_WEIGHT + " ON "
+                            + PetEntry.TABLE_NAME + "(" + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ");");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_WEIGHT + " ON "
+                            + PetEntry.TABLE_NAME + "(" + PetEntry.COLUMN_PET_WEIGHT + ");");
+                }
+            },
+            new Migration(3) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    // Full-text index over name and breed. The docid mirrors the pet's _ID and the
+                    // triggers below keep it in step with every write to the pets table.
+                    db.execSQL("CREATE VIRTUAL TABLE IF NOT EXISTS " + PetEntry.FTS_TABLE_NAME + " USING fts4("
+                            + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ");");
+                    db.execSQL("INSERT INTO " + PetEntry.FTS_TABLE_NAME
+                            + "(docid, " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " SELECT " + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                            + " FROM " + PetEntry.TABLE_NAME + ";");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_FTS_INSERT
+                            + " AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " INSERT INTO " + PetEntry.FTS_TABLE_NAME
+                            + "(docid, " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " VALUES (NEW." + PetEntry._ID + ", NEW." + PetEntry.COLUMN_PET_NAME + ", NEW." + PetEntry.COLUMN_PET_BREED + ");"
+                            + " END;");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_FTS_UPDATE
+                            + " AFTER UPDATE OF " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED
+                            + " ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + PetEntry.FTS_TABLE_NAME + " SET "
+                            + PetEntry.COLUMN_PET_NAME + " = NEW." + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " = NEW." + PetEntry.COLUMN_PET_BREED
+                            + " WHERE docid = NEW." + PetEntry._ID + ";"
+                            + " END;");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_FTS_DELETE
+                            + " AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " DELETE FROM " + PetEntry.FTS_TABLE_NAME + " WHERE docid = OLD." + PetEntry._ID + ";"
+                            + " END;");
+                }
+            },
+            new Migration(4) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + PetStatsEntry.TABLE_GENDER_COUNTS + "("
+                            + PetEntry.COLUMN_PET_GENDER + " INTEGER PRIMARY KEY,"
+                            + PetStatsEntry.COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM + "("
+                            + PetStatsEntry.COLUMN_WEIGHT_BUCKET + " INTEGER PRIMARY KEY,"
+                            + PetStatsEntry.COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + PetStatsEntry.TABLE_BREED_COUNTS + "("
+                            + PetEntry.COLUMN_PET_BREED + " TEXT PRIMARY KEY,"
+                            + PetStatsEntry.COLUMN_COUNT + " INTEGER NOT NULL DEFAULT 0);");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_BREED_COUNT + " ON "
+                            + PetStatsEntry.TABLE_BREED_COUNTS + "(" + PetStatsEntry.COLUMN_COUNT + ");");
+
+                    String weightBucket = "%1$s." + PetEntry.COLUMN_PET_WEIGHT + " / " + PetStatsEntry.WEIGHT_BUCKET_SIZE;
+                    // Pets without a breed are counted under ''; version 8 moves them to NULL
+                    String breedKey = "IFNULL(%1$s." + PetEntry.COLUMN_PET_BREED + ", '')";
+                    String increment = " INSERT OR IGNORE INTO " + PetStatsEntry.TABLE_GENDER_COUNTS + " VALUES (NEW." + PetEntry.COLUMN_PET_GENDER + ", 0);"
+                            + " UPDATE " + PetStatsEntry.TABLE_GENDER_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " + 1"
+                            + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = NEW." + PetEntry.COLUMN_PET_GENDER + ";"
+                            + " INSERT OR IGNORE INTO " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM + " VALUES (" + String.format(weightBucket, "NEW") + ", 0);"
+                            + " UPDATE " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " + 1"
+                            + " WHERE " + PetStatsEntry.COLUMN_WEIGHT_BUCKET + " = " + String.format(weightBucket, "NEW") + ";"
+                            + " INSERT OR IGNORE INTO " + PetStatsEntry.TABLE_BREED_COUNTS + " VALUES (" + String.format(breedKey, "NEW") + ", 0);"
+                            + " UPDATE " + PetStatsEntry.TABLE_BREED_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " + 1"
+                            + " WHERE " + PetEntry.COLUMN_PET_BREED + " = " + String.format(breedKey, "NEW") + ";";
+                    // Breeds are open-ended, so their rows are removed once no pet uses them
+                    String decrement = " UPDATE " + PetStatsEntry.TABLE_GENDER_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " - 1"
+                            + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = OLD." + PetEntry.COLUMN_PET_GENDER + ";"
+                            + " UPDATE " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " - 1"
+                            + " WHERE " + PetStatsEntry.COLUMN_WEIGHT_BUCKET + " = " + String.format(weightBucket, "OLD") + ";"
+                            + " UPDATE " + PetStatsEntry.TABLE_BREED_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " - 1"
+                            + " WHERE " + PetEntry.COLUMN_PET_BREED + " = " + String.format(breedKey, "OLD") + ";"
+                            + " DELETE FROM " + PetStatsEntry.TABLE_BREED_COUNTS
+                            + " WHERE " + PetEntry.COLUMN_PET_BREED + " = " + String.format(breedKey, "OLD")
+                            + " AND " + PetStatsEntry.COLUMN_COUNT + " <= 0;";
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_STATS_INSERT
+                            + " AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN" + increment + " END;");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_STATS_UPDATE
+                            + " AFTER UPDATE OF " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry.COLUMN_PET_BREED
+                            + " ON " + PetEntry.TABLE_NAME + " BEGIN" + decrement + increment + " END;");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_STATS_DELETE
+                            + " AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN" + decrement + " END;");
+                    // Backfill from existing rows. Written out here rather than calling
+                    // PetStatistics so this step stays fixed if the summary schema changes later.
+                    db.execSQL("INSERT INTO " + PetStatsEntry.TABLE_GENDER_COUNTS
+                            + " SELECT " + PetEntry.COLUMN_PET_GENDER + ", COUNT(*) FROM " + PetEntry.TABLE_NAME
+                            + " GROUP BY " + PetEntry.COLUMN_PET_GENDER + ";");
+                    db.execSQL("INSERT INTO " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM
+                            + " SELECT " + String.format(weightBucket, PetEntry.TABLE_NAME) + ", COUNT(*) FROM " + PetEntry.TABLE_NAME
+                            + " GROUP BY 1;");
+                    db.execSQL("INSERT INTO " + PetStatsEntry.TABLE_BREED_COUNTS
+                            + " SELECT " + String.format(breedKey, PetEntry.TABLE_NAME) + ", COUNT(*) FROM " + PetEntry.TABLE_NAME
+                            + " GROUP BY 1;");
+                }
+            },
+            new Migration(5) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    // Breed names move into a dictionary and pets keep an integer id instead.
+                    // Numbering by popularity gives the most common breeds one-byte ids on disk.
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + BreedEntry.TABLE_NAME + "("
+                            + BreedEntry._ID + " INTEGER PRIMARY KEY,"
+                            + BreedEntry.COLUMN_BREED_NAME + " TEXT NOT NULL UNIQUE);");
+                    db.execSQL("INSERT OR IGNORE INTO " + BreedEntry.TABLE_NAME + "(" + BreedEntry.COLUMN_BREED_NAME + ")"
+                            + " SELECT " + PetEntry.COLUMN_PET_BREED + " FROM " + PetEntry.TABLE_NAME
+                            + " WHERE " + PetEntry.COLUMN_PET_BREED + " IS NOT NULL"
+                            + " GROUP BY " + PetEntry.COLUMN_PET_BREED + " ORDER BY COUNT(*) DESC;");
+
+                    // SQLite can't drop a column, so the pets table is rebuilt. _IDs are copied as
+                    // they are and the AUTOINCREMENT high-water mark carried over, so deleted IDs
+                    // are still never reused. Dropping the old table also drops its indexes and
+                    // triggers, which are recreated below against the new columns.
+                    db.execSQL("CREATE TABLE " + REBUILD_TABLE_NAME + "("
+                            + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                            + PetEntry.COLUMN_PET_NAME + " TEXT NOT NULL,"
+                            + PetEntry.COLUMN_PET_BREED_ID + " INTEGER REFERENCES " + BreedEntry.TABLE_NAME + "(" + BreedEntry._ID + "),"
+                            + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL DEFAULT 0,"
+                            + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL);");
+                    db.execSQL("INSERT INTO " + REBUILD_TABLE_NAME + "("
+                            + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED_ID + ", "
+                            + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ")"
+                            + " SELECT " + PetEntry.TABLE_NAME + "." + PetEntry._ID + ", " + PetEntry.COLUMN_PET_NAME + ", "
+                            + BreedEntry.TABLE_NAME + "." + BreedEntry._ID + ", " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT
+                            + " FROM " + PetEntry.TABLE_NAME + " LEFT JOIN " + BreedEntry.TABLE_NAME
+                            + " ON " + BreedEntry.TABLE_NAME + "." + BreedEntry.COLUMN_BREED_NAME + " = " + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_BREED
+                            + " ORDER BY " + PetEntry.TABLE_NAME + "." + PetEntry._ID + ";");
+                    db.execSQL("DELETE FROM sqlite_sequence WHERE name = '" + REBUILD_TABLE_NAME + "';");
+                    db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + REBUILD_TABLE_NAME + "', seq"
+                            + " FROM sqlite_sequence WHERE name = '" + PetEntry.TABLE_NAME + "';");
+                    db.execSQL("DROP TABLE " + PetEntry.TABLE_NAME + ";");
+                    db.execSQL("ALTER TABLE " + REBUILD_TABLE_NAME + " RENAME TO " + PetEntry.TABLE_NAME + ";");
+
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_NAME + " ON "
+                            + PetEntry.TABLE_NAME + "(" + PetEntry.COLUMN_PET_NAME + ");");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_BREED + " ON "
+                            + PetEntry.TABLE_NAME + "(" + PetEntry.COLUMN_PET_BREED_ID + ");");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_GENDER_WEIGHT + " ON "
+                            + PetEntry.TABLE_NAME + "(" + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ");");
+                    db.execSQL("CREATE INDEX IF NOT EXISTS " + INDEX_PET_WEIGHT + " ON "
+                            + PetEntry.TABLE_NAME + "(" + PetEntry.COLUMN_PET_WEIGHT + ");");
+
+                    // Readers see the original columns. The join is on the dictionary's primary
+                    // key, and SQLite leaves it out entirely when no breed column is selected.
+                    db.execSQL("CREATE VIEW IF NOT EXISTS " + PetEntry.VIEW_NAME + " AS SELECT "
+                            + PetEntry.TABLE_NAME + "." + PetEntry._ID + " AS " + PetEntry._ID + ", "
+                            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME + ", "
+                            + BreedEntry.TABLE_NAME + "." + BreedEntry.COLUMN_BREED_NAME + " AS " + PetEntry.COLUMN_PET_BREED + ", "
+                            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_BREED_ID + " AS " + PetEntry.COLUMN_PET_BREED_ID + ", "
+                            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_GENDER + " AS " + PetEntry.COLUMN_PET_GENDER + ", "
+                            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_WEIGHT + " AS " + PetEntry.COLUMN_PET_WEIGHT
+                            + " FROM " + PetEntry.TABLE_NAME + " LEFT JOIN " + BreedEntry.TABLE_NAME
+                            + " ON " + BreedEntry.TABLE_NAME + "." + BreedEntry._ID + " = " + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_BREED_ID + ";");
+
+                    // The FTS index and breed counts stay keyed by name, so their contents carry
+                    // over unchanged; only the triggers now look the name up
+                    String breedName = "(SELECT " + BreedEntry.COLUMN_BREED_NAME + " FROM " + BreedEntry.TABLE_NAME
+                            + " WHERE " + BreedEntry.TABLE_NAME + "." + BreedEntry._ID + " = %1$s." + PetEntry.COLUMN_PET_BREED_ID + ")";
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_FTS_INSERT
+                            + " AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " INSERT INTO " + PetEntry.FTS_TABLE_NAME
+                            + "(docid, " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ")"
+                            + " VALUES (NEW." + PetEntry._ID + ", NEW." + PetEntry.COLUMN_PET_NAME + ", " + String.format(breedName, "NEW") + ");"
+                            + " END;");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_FTS_UPDATE
+                            + " AFTER UPDATE OF " + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED_ID
+                            + " ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " UPDATE " + PetEntry.FTS_TABLE_NAME + " SET "
+                            + PetEntry.COLUMN_PET_NAME + " = NEW." + PetEntry.COLUMN_PET_NAME + ", "
+                            + PetEntry.COLUMN_PET_BREED + " = " + String.format(breedName, "NEW")
+                            + " WHERE docid = NEW." + PetEntry._ID + ";"
+                            + " END;");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_FTS_DELETE
+                            + " AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + " DELETE FROM " + PetEntry.FTS_TABLE_NAME + " WHERE docid = OLD." + PetEntry._ID + ";"
+                            + " END;");
+
+                    String weightBucket = "%1$s." + PetEntry.COLUMN_PET_WEIGHT + " / " + PetStatsEntry.WEIGHT_BUCKET_SIZE;
+                    String breedKey = "IFNULL(" + breedName + ", '')";
+                    String increment = " INSERT OR IGNORE INTO " + PetStatsEntry.TABLE_GENDER_COUNTS + " VALUES (NEW." + PetEntry.COLUMN_PET_GENDER + ", 0);"
+                            + " UPDATE " + PetStatsEntry.TABLE_GENDER_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " + 1"
+                            + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = NEW." + PetEntry.COLUMN_PET_GENDER + ";"
+                            + " INSERT OR IGNORE INTO " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM + " VALUES (" + String.format(weightBucket, "NEW") + ", 0);"
+                            + " UPDATE " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " + 1"
+                            + " WHERE " + PetStatsEntry.COLUMN_WEIGHT_BUCKET + " = " + String.format(weightBucket, "NEW") + ";"
+                            + " INSERT OR IGNORE INTO " + PetStatsEntry.TABLE_BREED_COUNTS + " VALUES (" + String.format(breedKey, "NEW") + ", 0);"
+                            + " UPDATE " + PetStatsEntry.TABLE_BREED_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " + 1"
+                            + " WHERE " + PetEntry.COLUMN_PET_BREED + " = " + String.format(breedKey, "NEW") + ";";
+                    String decrement = " UPDATE " + PetStatsEntry.TABLE_GENDER_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " - 1"
+                            + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = OLD." + PetEntry.COLUMN_PET_GENDER + ";"
+                            + " UPDATE " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " - 1"
+                            + " WHERE " + PetStatsEntry.COLUMN_WEIGHT_BUCKET + " = " + String.format(weightBucket, "OLD") + ";"
+                            + " UPDATE " + PetStatsEntry.TABLE_BREED_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " - 1"
+                            + " WHERE " + PetEntry.COLUMN_PET_BREED + " = " + String.format(breedKey, "OLD") + ";"
+                            + " DELETE FROM " + PetStatsEntry.TABLE_BREED_COUNTS
+                            + " WHERE " + PetEntry.COLUMN_PET_BREED + " = " + String.format(breedKey, "OLD")
+                            + " AND " + PetStatsEntry.COLUMN_COUNT + " <= 0;";
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_STATS_INSERT
+                            + " AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN" + increment + " END;");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_STATS_UPDATE
+                            + " AFTER UPDATE OF " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry.COLUMN_PET_BREED_ID
+                            + " ON " + PetEntry.TABLE_NAME + " BEGIN" + decrement + increment + " END;");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_STATS_DELETE
+                            + " AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN" + decrement + " END;");
+                }
+            },
+            new Migration(6) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    // One row per write to a pet, numbered in commit order. AUTOINCREMENT keeps
+                    // sequence numbers from being reused once older rows are pruned. Existing pets
+                    // get no rows: readers start from the sequence current when they first load.
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + PetChangeEntry.TABLE_NAME + "("
+                            + PetChangeEntry.COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT,"
+                            + PetChangeEntry.COLUMN_PET_ID + " INTEGER NOT NULL,"
+                            + PetChangeEntry.COLUMN_OPERATION + " INTEGER NOT NULL);");
+                    String record = " INSERT INTO " + PetChangeEntry.TABLE_NAME
+                            + "(" + PetChangeEntry.COLUMN_PET_ID + ", " + PetChangeEntry.COLUMN_OPERATION + ")"
+                            + " VALUES (%1$s." + PetEntry._ID + ", %2$s);";
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_CHANGES_INSERT
+                            + " AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + String.format(record, "NEW", String.valueOf(PetChangeEntry.OPERATION_INSERT)) + " END;");
+                    // The provider skips rows that already hold the new values, so every update
+                    // that reaches this trigger is a real change
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_CHANGES_UPDATE
+                            + " AFTER UPDATE ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + String.format(record, "NEW", String.valueOf(PetChangeEntry.OPERATION_UPDATE)) + " END;");
+                    db.execSQL("CREATE TRIGGER IF NOT EXISTS " + TRIGGER_CHANGES_DELETE
+                            + " AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN"
+                            + String.format(record, "OLD", String.valueOf(PetChangeEntry.OPERATION_DELETE)) + " END;");
+                }
+            },
+            new Migration(7) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    // Import checkpoints, written in the same transaction as each imported chunk
+                    db.execSQL("CREATE TABLE IF NOT EXISTS " + ImportProgressEntry.TABLE_NAME + "("
+                            + ImportProgressEntry.COLUMN_IMPORT_ID + " TEXT PRIMARY KEY,"
+                            + ImportProgressEntry.COLUMN_RECORDS + " INTEGER NOT NULL);");
+                }
+            },
+            new Migration(8) {
+                @Override
+                public void migrate(SQLiteDatabase db) {
+                    // Pets without a breed were counted under '', which an explicit empty breed
+                    // shares. They are now counted under NULL. A NULL key doesn't conflict on the
+                    // primary key and never matches '=', so the triggers look the row up first.
+                    String breedName = "(SELECT " + BreedEntry.COLUMN_BREED_NAME + " FROM " + BreedEntry.TABLE_NAME
+                            + " WHERE " + BreedEntry.TABLE_NAME + "." + BreedEntry._ID + " = %1$s." + PetEntry.COLUMN_PET_BREED_ID + ")";
+                    // Spelled out rather than IS so older SQLite releases can still use the primary key
+                    String breedMatches = "(" + PetEntry.COLUMN_PET_BREED + " = " + breedName
+                            + " OR (" + PetEntry.COLUMN_PET_BREED + " IS NULL AND %1$s." + PetEntry.COLUMN_PET_BREED_ID + " IS NULL))";
+                    String weightBucket = "%1$s." + PetEntry.COLUMN_PET_WEIGHT + " / " + PetStatsEntry.WEIGHT_BUCKET_SIZE;
+                    String increment = " INSERT OR IGNORE INTO " + PetStatsEntry.TABLE_GENDER_COUNTS + " VALUES (NEW." + PetEntry.COLUMN_PET_GENDER + ", 0);"
+                            + " UPDATE " + PetStatsEntry.TABLE_GENDER_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " + 1"
+                            + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = NEW." + PetEntry.COLUMN_PET_GENDER + ";"
+                            + " INSERT OR IGNORE INTO " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM + " VALUES (" + String.format(weightBucket, "NEW") + ", 0);"
+                            + " UPDATE " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " + 1"
+                            + " WHERE " + PetStatsEntry.COLUMN_WEIGHT_BUCKET + " = " + String.format(weightBucket, "NEW") + ";"
+                            + " INSERT INTO " + PetStatsEntry.TABLE_BREED_COUNTS + " SELECT " + String.format(breedName, "NEW") + ", 0"
+                            + " WHERE NOT EXISTS (SELECT 1 FROM " + PetStatsEntry.TABLE_BREED_COUNTS
+                            + " WHERE " + String.format(breedMatches, "NEW") + ");"
+                            + " UPDATE " + PetStatsEntry.TABLE_BREED_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " + 1"
+                            + " WHERE " + String.format(breedMatches, "NEW") + ";";
+                    String decrement = " UPDATE " + PetStatsEntry.TABLE_GENDER_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " - 1"
+                            + " WHERE " + PetEntry.COLUMN_PET_GENDER + " = OLD." + PetEntry.COLUMN_PET_GENDER + ";"
+                            + " UPDATE " + PetStatsEntry.TABLE_WEIGHT_HISTOGRAM + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " - 1"
+                            + " WHERE " + PetStatsEntry.COLUMN_WEIGHT_BUCKET + " = " + String.format(weightBucket, "OLD") + ";"
+                            + " UPDATE " + PetStatsEntry.TABLE_BREED_COUNTS + " SET " + PetStatsEntry.COLUMN_COUNT + " = " + PetStatsEntry.COLUMN_COUNT + " - 1"
+                            + " WHERE " + String.format(breedMatches, "OLD") + ";"
+                            + " DELETE FROM " + PetStatsEntry.TABLE_BREED_COUNTS
+                            + " WHERE " + String.format(breedMatches, "OLD")
+                            + " AND " + PetStatsEntry.COLUMN_COUNT + " <= 0;";
+                    db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_STATS_INSERT + ";");
+                    db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_STATS_UPDATE + ";");
+                    db.execSQL("DROP TRIGGER IF EXISTS " + TRIGGER_STATS_DELETE + ";");
+                    db.execSQL("CREATE TRIGGER " + TRIGGER_STATS_INSERT
+                            + " AFTER INSERT ON " + PetEntry.TABLE_NAME + " BEGIN" + increment + " END;");
+                    db.execSQL("CREATE TRIGGER " + TRIGGER_STATS_UPDATE
+                            + " AFTER UPDATE OF " + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ", " + PetEntry.COLUMN_PET_BREED_ID
+                            + " ON " + PetEntry.TABLE_NAME + " BEGIN" + decrement + increment + " END;");
+                    db.execSQL("CREATE TRIGGER " + TRIGGER_STATS_DELETE
+                            + " AFTER DELETE ON " + PetEntry.TABLE_NAME + " BEGIN" + decrement + " END;");
+
+                    // The '' row mixed both groups, so breed counts are taken again from the pets
+                    db.execSQL("DELETE FROM " + PetStatsEntry.TABLE_BREED_COUNTS + ";");
+                    db.execSQL("INSERT INTO " + PetStatsEntry.TABLE_BREED_COUNTS
+                            + " SELECT " + String.format(breedName, PetEntry.TABLE_NAME) + ", COUNT(*) FROM " + PetEntry.TABLE_NAME
+                            + " GROUP BY " + PetEntry.COLUMN_PET_BREED_ID + ";");
+                }
+            }
+    };
 
     public PetDBHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, 0);
+    }
+
+    /**
+     * A helper for the pets schema in database {@code name}, whose pets are numbered from
+     * {@code idBase} + 1 rather than 1.
+     */
+    public PetDBHelper(Context context, String name, long idBase) {
+        super(context, name, null, DATABASE_VERSION);
         mContext = context;
+        mIdBase = idBase;
+        // Readers get their own pooled connections and no longer wait on an in-progress write
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        if (db.isReadOnly()) {
+            return;
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            db.enableWriteAheadLogging();
+        }
+        applyCheckpointPolicy(db);
+        if (mIdBase > 0) {
+            reserveIdBase(db);
+        }
+    }
+
+    // Raises the pets table's AUTOINCREMENT high-water mark to mIdBase unless it is already past it
+    private void reserveIdBase(SQLiteDatabase db) {
+        db.execSQL("INSERT INTO sqlite_sequence (name, seq) SELECT '" + PetEntry.TABLE_NAME + "', " + mIdBase
+                + " WHERE NOT EXISTS (SELECT 1 FROM sqlite_sequence WHERE name = '" + PetEntry.TABLE_NAME + "');");
+        db.execSQL("UPDATE sqlite_sequence SET seq = " + mIdBase
+                + " WHERE name = '" + PetEntry.TABLE_NAME + "' AND seq < " + mIdBase + ";");
+    }
+
+    /**
+     * Sets how many WAL pages accumulate before a commit runs an automatic checkpoint. Larger
+     * values batch more writes per checkpoint at the cost of a bigger -wal file; 0 or less turns
+     * automatic checkpoints off, leaving them to {@link #checkpoint(CheckpointMode)}.
+     */
+    public synchronized void setAutoCheckpointPages(int pages) {
+        mAutoCheckpointPages = pages;
+        applyCheckpointPolicy(getWritableDatabase());
+    }
+
+    /**
+     * Copies committed WAL content back into pets.db. Returns false if the checkpoint could not
+     * complete because readers or a writer were still using the log.
+     */
+    public boolean checkpoint(CheckpointMode mode) {
+        Cursor cursor = getWritableDatabase().rawQuery("PRAGMA wal_checkpoint(" + mode.name() + ")", null);
+        try {
+            // One row: busy flag, frames in the log, frames checkpointed
+            return !cursor.moveToFirst() || cursor.getInt(0) == 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void applyCheckpointPolicy(SQLiteDatabase db) {
+        runPragma(db, "PRAGMA wal_autocheckpoint=" + Math.max(mAutoCheckpointPages, 0));
+        runPragma(db, "PRAGMA journal_size_limit=" + WAL_JOURNAL_SIZE_LIMIT_BYTES);
+    }
+
+    // These pragmas return a row, which execSQL() rejects on some releases
+    private static void runPragma(SQLiteDatabase db, String pragma) {
+        Cursor cursor = db.rawQuery(pragma, null);
+        try {
+            cursor.moveToFirst();
+        } finally {
+            cursor.close();
+        }
     }
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        create(sqLiteDatabase, DATABASE_VERSION);
+        mSchemaGeneration++;
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
+        migrate(sqLiteDatabase, oldVersion, newVersion);
+        mSchemaGeneration++;
+    }
+
+    /**
+     * Changes every time this helper creates or migrates the schema, so anything compiled against
+     * an older schema (such as cached statements) knows to rebuild.
+     */
+    public int getSchemaGeneration() {
+        return mSchemaGeneration;
+    }
+
+    /**
+     * Creates the schema as it was at {@code version} in an empty database. Fresh installs replay
+     * the same steps as upgrades so both end up with an identical schema; benchmarks use older
+     * versions to compare against.
+     */
+    public static void create(SQLiteDatabase db, int version) {
         String SQL_CREATE_PETS_TABLE =
                 "CREATE TABLE " + PetEntry.TABLE_NAME + "("
                         + PetEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT,"
@@ -26,10 +487,22 @@ public class PetDBHelper extends SQLiteOpenHelper {
                         + PetEntry.COLUMN_PET_BREED + " TEXT,"
                         + PetEntry.COLUMN_PET_GENDER + " INTEGER NOT NULL DEFAULT 0,"
                         + PetEntry.COLUMN_PET_WEIGHT + " INTEGER NOT NULL);";
-        sqLiteDatabase.execSQL(SQL_CREATE_PETS_TABLE);
+        db.execSQL(SQL_CREATE_PETS_TABLE);
+        migrate(db, BASE_VERSION, version);
     }
 
-    @Override
-    public void onUpgrade(SQLiteDatabase sqLiteDatabase, int i, int i1) {
+    /**
+     * Runs every migration step after {@code fromVersion} up to and including {@code toVersion},
+     * in order. SQLiteOpenHelper already wraps onCreate()/onUpgrade() in a transaction; callers
+     * migrating a database they opened themselves should do the same.
+     */
+    public static void migrate(SQLiteDatabase db, int fromVersion, int toVersion) {
+        for (Migration migration : MIGRATIONS) {
+            int version = migration.getVersion();
+            if (version > fromVersion && version <= toVersion) {
+                Log.i(LOG_TAG, "Migrating " + DATABASE_NAME + " to version " + version);
+                migration.migrate(db);
+            }
+        }
     }
-}
\ No newline at end of file
+}
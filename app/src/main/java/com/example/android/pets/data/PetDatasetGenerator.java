@@ -0,0 +1,148 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Produces a reproducible stream of plausible pets: the same seed always yields the same pets in
+ * the same order, on any JVM or device.
+ * <p>
+ * Names and breeds are drawn from popularity-ranked lists with a Zipf distribution, so a few
+ * values dominate and the rest form a long tail, as in real registries. One pet in ten has no
+ * breed. Weights are log-normal around the breed's typical weight, and genders are split evenly
+ * between male and female with a few unknown.
+ */
+public class PetDatasetGenerator {
+    public static final long DEFAULT_SEED = 20161028L;
+    // Rows per bulkInsert() call when loading; each call is one transaction
+    public static final int LOAD_CHUNK_SIZE = 5000;
+
+    private static final double NAME_SKEW = 0.9;
+    private static final double BREED_SKEW = 1.1;
+    private static final double NO_BREED_PROBABILITY = 0.1;
+    private static final double UNKNOWN_GENDER_PROBABILITY = 0.06;
+    // Spread of weights around a breed's typical weight, as a log-normal sigma
+    private static final double WEIGHT_SPREAD = 0.2;
+    private static final int MIXED_BREED_WEIGHT = 12;
+
+    private static final String[] NAMES = {
+            "Bella", "Max", "Luna", "Charlie", "Lucy", "Cooper", "Daisy", "Milo", "Bailey", "Buddy",
+            "Sadie", "Rocky", "Molly", "Bear", "Lola", "Tucker", "Stella", "Duke", "Zoe", "Jack",
+            "Chloe", "Oliver", "Penny", "Leo", "Coco", "Toby", "Ruby", "Teddy", "Rosie", "Bentley",
+            "Gracie", "Winston", "Nala", "Louie", "Maggie", "Zeus", "Lily", "Murphy", "Sophie", "Jax",
+            "Roxy", "Gus", "Ellie", "Oscar", "Piper", "Bruno", "Willow", "Finn", "Riley", "Loki",
+            "Ginger", "Simba", "Cleo", "Tommy", "Kitty", "Tiger", "Smokey", "Shadow", "Oreo", "Pepper",
+            "Misty", "Felix", "Jasper", "Boots", "Mittens", "Whiskers", "Ziggy", "Hazel", "Olive", "Moose",
+            "Archie", "Harley", "Diesel", "Apollo", "Hank", "Koda", "Rex", "Thor", "Biscuit", "Peanut",
+            "Pumpkin", "Sasha", "Mia", "Lulu", "Honey", "Maple", "Remy", "Ozzy", "Benji", "Rusty",
+            "Sam", "Sunny", "Nova", "Athena", "Ace", "Blue", "Bandit", "Chester", "Dexter", "Fiona"};
+
+    // Most popular first, with each breed's typical adult weight in kg
+    private static final String[] BREEDS = {
+            "Domestic Shorthair", "Labrador Retriever", "French Bulldog", "Golden Retriever", "German Shepherd",
+            "Domestic Longhair", "Poodle", "Bulldog", "Beagle", "Maine Coon",
+            "Rottweiler", "Dachshund", "Ragdoll", "Pembroke Welsh Corgi", "Australian Shepherd",
+            "Yorkshire Terrier", "Siamese", "Boxer", "Persian", "Cavalier King Charles Spaniel",
+            "Siberian Husky", "British Shorthair", "Doberman Pinscher", "Miniature Schnauzer", "Bengal",
+            "Great Dane", "Shih Tzu", "Boston Terrier", "Bernese Mountain Dog", "Pomeranian",
+            "Havanese", "Abyssinian", "Shetland Sheepdog", "Brittany", "English Springer Spaniel",
+            "Sphynx", "Cocker Spaniel", "Border Collie", "Scottish Fold", "Chihuahua",
+            "Russian Blue", "Maltese", "Jack Russell Terrier", "Norwegian Forest Cat", "Pug",
+            "Terrier", "Tabby", "Whippet", "Weimaraner", "Vizsla"};
+    private static final int[] BREED_WEIGHTS = {
+            5, 30, 12, 30, 32,
+            5, 20, 23, 10, 7,
+            45, 10, 6, 12, 23,
+            3, 4, 29, 5, 7,
+            23, 6, 35, 7, 5,
+            60, 6, 8, 42, 3,
+            5, 4, 9, 15, 22,
+            4, 13, 18, 4, 2,
+            4, 3, 7, 6, 8,
+            10, 5, 12, 32, 25};
+
+    private static final double[] NAME_CUMULATIVE = zipfCumulative(NAMES.length, NAME_SKEW);
+    private static final double[] BREED_CUMULATIVE = zipfCumulative(BREEDS.length, BREED_SKEW);
+
+    private final Random mRandom;
+
+    public PetDatasetGenerator() {
+        this(DEFAULT_SEED);
+    }
+
+    public PetDatasetGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * The next pet, as values ready for {@link PetEntry#CONTENT_URI}.
+     */
+    public ContentValues next() {
+        ContentValues values = new ContentValues(4);
+        values.put(PetEntry.COLUMN_PET_NAME, NAMES[pick(NAME_CUMULATIVE)]);
+        int typicalWeight = MIXED_BREED_WEIGHT;
+        if (mRandom.nextDouble() >= NO_BREED_PROBABILITY) {
+            int breed = pick(BREED_CUMULATIVE);
+            values.put(PetEntry.COLUMN_PET_BREED, BREEDS[breed]);
+            typicalWeight = BREED_WEIGHTS[breed];
+        } else {
+            values.putNull(PetEntry.COLUMN_PET_BREED);
+        }
+        double gender = mRandom.nextDouble();
+        values.put(PetEntry.COLUMN_PET_GENDER, gender < UNKNOWN_GENDER_PROBABILITY ? PetEntry.GENDER_UNKNOWN
+                : gender < (1 + UNKNOWN_GENDER_PROBABILITY) / 2 ? PetEntry.GENDER_MALE : PetEntry.GENDER_FEMALE);
+        long weight = Math.round(typicalWeight * Math.exp(WEIGHT_SPREAD * mRandom.nextGaussian()));
+        values.put(PetEntry.COLUMN_PET_WEIGHT, (int) Math.max(1, weight));
+        return values;
+    }
+
+    /**
+     * The next {@code count} pets.
+     */
+    public ContentValues[] next(int count) {
+        ContentValues[] pets = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            pets[i] = next();
+        }
+        return pets;
+    }
+
+    /**
+     * Inserts the next {@code count} pets through {@link ContentResolver#bulkInsert}, which the
+     * provider runs as one transaction on a cached statement per {@link #LOAD_CHUNK_SIZE} rows.
+     * Returns how many were inserted. Runs the inserts on the calling thread.
+     */
+    public int load(ContentResolver resolver, int count) {
+        int inserted = 0;
+        for (int remaining = count; remaining > 0; ) {
+            int chunk = Math.min(LOAD_CHUNK_SIZE, remaining);
+            inserted += resolver.bulkInsert(PetEntry.CONTENT_URI, next(chunk));
+            remaining -= chunk;
+        }
+        return inserted;
+    }
+
+    private int pick(double[] cumulative) {
+        int position = Arrays.binarySearch(cumulative, mRandom.nextDouble());
+        return Math.min(position >= 0 ? position : -position - 1, cumulative.length - 1);
+    }
+
+    // Cumulative probabilities of ranks 1..size, each proportional to 1 / rank^skew
+    private static double[] zipfCumulative(int size, double skew) {
+        double[] cumulative = new double[size];
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            total += 1 / Math.pow(i + 1, skew);
+            cumulative[i] = total;
+        }
+        for (int i = 0; i < size; i++) {
+            cumulative[i] /= total;
+        }
+        return cumulative;
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProvider;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Writes the pets table into a pipe as CSV or newline-delimited JSON, for
+ * {@link PetProvider#openTypedAssetFile}. Rows are read in _ID-ordered keyset chunks and
+ * written straight to the pipe, so neither side ever holds more than one chunk however large
+ * the table is. The pipe's reader sets the pace: a slow consumer simply blocks the writer.
+ */
+class PetExporter implements ContentProvider.PipeDataWriter<String> {
+    private static final String LOG_TAG = PetExporter.class.getSimpleName();
+    static final int CHUNK_SIZE = 500;
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final PetDBHelper mDBHelper;
+
+    PetExporter(PetDBHelper dbHelper) {
+        mDBHelper = dbHelper;
+    }
+
+    @Override
+    public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts, String args) {
+        boolean csv = PetContract.MIME_TYPE_CSV.equals(mimeType);
+        long startTime = System.nanoTime();
+        long rows = 0;
+        CountingOutputStream counter = new CountingOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(output));
+        Writer writer = new BufferedWriter(new OutputStreamWriter(counter, UTF_8), WRITE_BUFFER_SIZE);
+        try {
+            if (csv) {
+                writeCsvHeader(writer);
+            }
+            SQLiteDatabase db = mDBHelper.getReadableDatabase();
+            long lastID = -1;
+            String[] selectionArgs = new String[1];
+            while (true) {
+                selectionArgs[0] = String.valueOf(lastID);
+                Cursor cursor = db.query(PetEntry.VIEW_NAME, PetEntry.PET_COLUMN_LIST, PetEntry._ID + " > ?",
+                        selectionArgs, null, null, PetEntry._ID, String.valueOf(CHUNK_SIZE));
+                int count;
+                try {
+                    count = cursor.getCount();
+                    while (cursor.moveToNext()) {
+                        lastID = cursor.getLong(0);
+                        if (csv) {
+                            writeCsvRow(writer, cursor);
+                        } else {
+                            writeJsonRow(writer, cursor);
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+                rows += count;
+                if (count < CHUNK_SIZE) {
+                    break;
+                }
+            }
+            writer.flush();
+        } catch (IOException e) {
+            // Usually the reader closed its end early
+            Log.w(LOG_TAG, "Export of " + uri + " stopped after " + rows + " rows", e);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException ignored) {
+            }
+        }
+        long elapsedNanos = Math.max(System.nanoTime() - startTime, 1);
+        Log.i(LOG_TAG, "Exported " + rows + " pets (" + counter.getCount() + " bytes) as " + mimeType
+                + " in " + (elapsedNanos / 1000000) + " ms: "
+                + (rows * 1000000000L / elapsedNanos) + " rows/sec, "
+                + (counter.getCount() * 1000000000L / elapsedNanos) + " bytes/sec");
+    }
+
+    private static void writeCsvHeader(Writer writer) throws IOException {
+        for (int i = 0; i < PetEntry.PET_COLUMN_LIST.length; i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writer.write(PetEntry.PET_COLUMN_LIST[i]);
+        }
+        writer.write('\n');
+    }
+
+    private static void writeCsvRow(Writer writer, Cursor cursor) throws IOException {
+        writer.write(Long.toString(cursor.getLong(0)));
+        writer.write(',');
+        writeCsvField(writer, cursor.getString(1));
+        writer.write(',');
+        writeCsvField(writer, cursor.getString(2));
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(3)));
+        writer.write(',');
+        writer.write(Integer.toString(cursor.getInt(4)));
+        writer.write('\n');
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        boolean needsQuotes = false;
+        for (int i = 0; i < value.length() && !needsQuotes; i++) {
+            char c = value.charAt(i);
+            needsQuotes = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!needsQuotes) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                writer.write('"');
+            }
+            writer.write(c);
+        }
+        writer.write('"');
+    }
+
+    private static void writeJsonRow(Writer writer, Cursor cursor) throws IOException {
+        writer.write("{\"");
+        writer.write(PetEntry._ID);
+        writer.write("\":");
+        writer.write(Long.toString(cursor.getLong(0)));
+        writer.write(",\"");
+        writer.write(PetEntry.COLUMN_PET_NAME);
+        writer.write("\":");
+        writeJsonString(writer, cursor.getString(1));
+        writer.write(",\"");
+        writer.write(PetEntry.COLUMN_PET_BREED);
+        writer.write("\":");
+        writeJsonString(writer, cursor.getString(2));
+        writer.write(",\"");
+        writer.write(PetEntry.COLUMN_PET_GENDER);
+        writer.write("\":");
+        writer.write(Integer.toString(cursor.getInt(3)));
+        writer.write(",\"");
+        writer.write(PetEntry.COLUMN_PET_WEIGHT);
+        writer.write("\":");
+        writer.write(Integer.toString(cursor.getInt(4)));
+        writer.write("}\n");
+    }
+
+    private static void writeJsonString(Writer writer, String value) throws IOException {
+        if (value == null) {
+            writer.write("null");
+            return;
+        }
+        writer.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    writer.write("\\\"");
+                    break;
+                case '\\':
+                    writer.write("\\\\");
+                    break;
+                case '\n':
+                    writer.write("\\n");
+                    break;
+                case '\r':
+                    writer.write("\\r");
+                    break;
+                case '\t':
+                    writer.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        writer.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        writer.write(c);
+                    }
+                    break;
+            }
+        }
+        writer.write('"');
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long mCount = 0;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) throws IOException {
+            out.write(buffer, offset, length);
+            mCount += length;
+        }
+
+        long getCount() {
+            return mCount;
+        }
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.ImportProgressEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Streams pets from CSV or JSON into the pets table.
+ * <p>
+ * Records are parsed one at a time straight into a fixed pool of {@link ContentValues} and
+ * written through {@link ContentResolver#bulkInsert} one chunk per transaction, so memory use is
+ * bounded by the chunk size whatever the file size. Rows failing the provider's validation rules
+ * are skipped and counted rather than failing their chunk. Each chunk also saves the number of
+ * records consumed under the caller's import id, in the same transaction as its rows (see
+ * {@link ImportProgressEntry}); running the same import again skips those records and carries on
+ * from there, and a crash part way through a chunk never imports it twice.
+ * <p>
+ * CSV input needs a header row naming the columns, either the {@link PetEntry} column names or
+ * plain name, breed, gender and weight. JSON input is an array of objects keyed the same way.
+ * Gender may be a number or one of the GENDER_STRING_* values.
+ */
+public class PetImporter {
+    private static final String LOG_TAG = PetImporter.class.getSimpleName();
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final int INVALID = -1;
+    private static final int NAME = 0;
+    private static final int BREED = 1;
+    private static final int GENDER = 2;
+    private static final int WEIGHT = 3;
+
+    /**
+     * Called on the importing thread after every committed chunk.
+     */
+    public interface ProgressListener {
+        void onProgress(Result progress);
+    }
+
+    /**
+     * Running totals for one import. Records read include those skipped on resume.
+     */
+    public static class Result {
+        public long recordsRead;
+        public long rowsImported;
+        public long rowsSkipped;
+        public long resumedFrom;
+
+        @Override
+        public String toString() {
+            return "recordsRead=" + recordsRead + ", rowsImported=" + rowsImported
+                    + ", rowsSkipped=" + rowsSkipped + ", resumedFrom=" + resumedFrom;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private ProgressListener mListener;
+
+    // Per-import state
+    private ContentValues[] mChunk;
+    private int mChunkCount;
+    private Result mResult;
+    private String mImportId;
+
+    public PetImporter(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    public PetImporter setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        mChunkSize = chunkSize;
+        return this;
+    }
+
+    public PetImporter setProgressListener(ProgressListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Returns how many records of {@code importId} are already committed.
+     */
+    public long getCheckpoint(String importId) {
+        Bundle result = mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_GET_IMPORT_CHECKPOINT, importId, null);
+        return result != null ? result.getLong(PetContract.EXTRA_IMPORT_RECORDS) : 0;
+    }
+
+    public void clearCheckpoint(String importId) {
+        mResolver.call(PetEntry.CONTENT_URI, PetContract.METHOD_CLEAR_IMPORT_CHECKPOINT, importId, null);
+    }
+
+    public Result importCsv(String importId, InputStream in) throws IOException {
+        CsvParser parser = new CsvParser(new InputStreamReader(in, UTF_8));
+        List<String> fields = new ArrayList<>();
+        if (!parser.readRecord(fields)) {
+            return new Result();
+        }
+        int[] columnMap = new int[fields.size()];
+        for (int i = 0; i < fields.size(); i++) {
+            columnMap[i] = columnFor(fields.get(i).trim());
+        }
+        String[] record = new String[WEIGHT + 1];
+        start(importId);
+        while (parser.readRecord(fields)) {
+            Arrays.fill(record, null);
+            for (int i = 0; i < fields.size() && i < columnMap.length; i++) {
+                if (columnMap[i] != INVALID) {
+                    record[columnMap[i]] = fields.get(i);
+                }
+            }
+            addRecord(record[NAME], record[BREED], record[GENDER], record[WEIGHT]);
+        }
+        return finish();
+    }
+
+    public Result importJson(String importId, InputStream in) throws IOException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, UTF_8));
+        String[] record = new String[WEIGHT + 1];
+        start(importId);
+        try {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                Arrays.fill(record, null);
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    int column = columnFor(reader.nextName());
+                    if (column == INVALID || reader.peek() == JsonToken.NULL) {
+                        reader.skipValue();
+                    } else {
+                        // nextString() also accepts numbers, keeping their literal text
+                        record[column] = reader.nextString();
+                    }
+                }
+                reader.endObject();
+                addRecord(record[NAME], record[BREED], record[GENDER], record[WEIGHT]);
+            }
+            reader.endArray();
+        } finally {
+            reader.close();
+        }
+        return finish();
+    }
+
+    private void start(String importId) {
+        mImportId = importId;
+        mResult = new Result();
+        mResult.resumedFrom = getCheckpoint(importId);
+        mChunk = new ContentValues[mChunkSize];
+        for (int i = 0; i < mChunkSize; i++) {
+            mChunk[i] = new ContentValues();
+        }
+        mChunkCount = 0;
+        if (mResult.resumedFrom > 0) {
+            Log.i(LOG_TAG, "Resuming import " + importId + " after " + mResult.resumedFrom + " records");
+        }
+    }
+
+    private void addRecord(String name, String breed, String genderText, String weightText) {
+        mResult.recordsRead++;
+        if (mResult.recordsRead <= mResult.resumedFrom) {
+            return;
+        }
+        int gender = parseGender(genderText);
+        Integer weight = parseInteger(weightText);
+        name = name != null ? name.trim() : null;
+        // Same rules PetProvider applies, checked here so one bad record skips alone
+        if (!PetEntry.isValidName(name) || !PetEntry.isValidGender(gender) || !PetEntry.isValidWeight(weight)) {
+            mResult.rowsSkipped++;
+            return;
+        }
+        ContentValues values = mChunk[mChunkCount++];
+        values.clear();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, TextUtils.isEmpty(breed) ? null : breed.trim());
+        values.put(PetEntry.COLUMN_PET_GENDER, gender);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+        if (mChunkCount == mChunkSize) {
+            commitChunk();
+        }
+    }
+
+    private void commitChunk() {
+        ContentValues[] rows = mChunkCount == mChunk.length ? mChunk : Arrays.copyOf(mChunk, mChunkCount);
+        // Records up to here, skipped ones included, never need reading again. The checkpoint
+        // commits with the rows, so it is saved even when every record was skipped.
+        mResult.rowsImported += mResolver.bulkInsert(
+                ImportProgressEntry.buildCheckpointUri(mImportId, mResult.recordsRead), rows);
+        mChunkCount = 0;
+        if (mListener != null) {
+            mListener.onProgress(mResult);
+        }
+    }
+
+    private Result finish() {
+        commitChunk();
+        Result result = mResult;
+        mChunk = null;
+        mResult = null;
+        Log.i(LOG_TAG, "Import " + mImportId + " finished: " + result);
+        return result;
+    }
+
+    private static int columnFor(String name) {
+        switch (name.toLowerCase()) {
+            case PetEntry.COLUMN_PET_NAME:
+            case "name":
+                return NAME;
+            case PetEntry.COLUMN_PET_BREED:
+            case "breed":
+                return BREED;
+            case PetEntry.COLUMN_PET_GENDER:
+            case "gender":
+                return GENDER;
+            case PetEntry.COLUMN_PET_WEIGHT:
+            case "weight":
+                return WEIGHT;
+            default:
+                return INVALID;
+        }
+    }
+
+    private static int parseGender(String value) {
+        if (TextUtils.isEmpty(value)) {
+            return PetEntry.GENDER_UNKNOWN;
+        }
+        value = value.trim();
+        if (value.equalsIgnoreCase(PetEntry.GENDER_STRING_MALE)) {
+            return PetEntry.GENDER_MALE;
+        } else if (value.equalsIgnoreCase(PetEntry.GENDER_STRING_FEMALE)) {
+            return PetEntry.GENDER_FEMALE;
+        } else if (value.equalsIgnoreCase(PetEntry.GENDER_STRING_UNKOWN)) {
+            return PetEntry.GENDER_UNKNOWN;
+        }
+        Integer gender = parseInteger(value);
+        return gender != null ? gender : INVALID;
+    }
+
+    private static Integer parseInteger(String value) {
+        if (TextUtils.isEmpty(value)) {
+            return null;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Minimal RFC 4180 reader: comma separated, double-quoted fields may hold commas, line
+     * breaks and doubled quotes. Reads through its own buffer one character at a time.
+     */
+    private static class CsvParser {
+        private final Reader mReader;
+        private final char[] mBuffer = new char[READ_BUFFER_SIZE];
+        private final StringBuilder mField = new StringBuilder();
+        private int mPosition = 0;
+        private int mLength = 0;
+
+        CsvParser(Reader reader) {
+            mReader = reader;
+        }
+
+        private int next() throws IOException {
+            if (mPosition == mLength) {
+                mLength = mReader.read(mBuffer, 0, mBuffer.length);
+                mPosition = 0;
+                if (mLength <= 0) {
+                    mLength = 0;
+                    return -1;
+                }
+            }
+            return mBuffer[mPosition++];
+        }
+
+        private int peek() throws IOException {
+            int c = next();
+            if (c != -1) {
+                mPosition--;
+            }
+            return c;
+        }
+
+        /**
+         * Replaces the contents of {@code fields} with the next record's fields. Returns false at
+         * end of input; blank lines are skipped.
+         */
+        boolean readRecord(List<String> fields) throws IOException {
+            fields.clear();
+            mField.setLength(0);
+            boolean quoted = false;
+            boolean sawAnything = false;
+            while (true) {
+                int c = next();
+                if (c == -1) {
+                    if (sawAnything) {
+                        fields.add(mField.toString());
+                    }
+                    return sawAnything;
+                }
+                if (quoted) {
+                    if (c == '"') {
+                        if (peek() == '"') {
+                            next();
+                            mField.append('"');
+                        } else {
+                            quoted = false;
+                        }
+                    } else {
+                        mField.append((char) c);
+                    }
+                } else if (c == '"') {
+                    quoted = true;
+                    sawAnything = true;
+                } else if (c == ',') {
+                    fields.add(mField.toString());
+                    mField.setLength(0);
+                    sawAnything = true;
+                } else if (c == '\n' || c == '\r') {
+                    if (c == '\r' && peek() == '\n') {
+                        next();
+                    }
+                    if (sawAnything) {
+                        fields.add(mField.toString());
+                        return true;
+                    }
+                } else {
+                    mField.append((char) c);
+                    sawAnything = true;
+                }
+            }
+        }
+    }
+}
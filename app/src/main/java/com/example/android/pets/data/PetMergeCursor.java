@@ -0,0 +1,256 @@
+package com.example.android.pets.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * Presents the cursors returned by each shard as one. With a sort order, every input must
+ * already be sorted by it and the rows are k-way merged; without one, the inputs follow each
+ * other. The merge can also drop rows already seen (for DISTINCT) and stop after a limit, since
+ * each shard applied those on its own rows only.
+ * <p>
+ * Rows are merged lazily as the cursor moves forwards, remembering only where each position
+ * already passed came from so it can move back to it. {@link #getCount()} has to merge
+ * everything that is left, so callers reading a page at a time should stop at the end of the
+ * page rather than ask for the count.
+ * <p>
+ * Only the first {@code visibleColumns} columns are exposed. Any after those were added to the
+ * shard queries to carry sort keys the caller didn't project.
+ */
+class PetMergeCursor extends AbstractCursor {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Cursor[] mCursors;
+    private final String[] mColumnNames;
+    private final int mVisibleColumns;
+    private final PetSortOrder mOrder;
+    private final int[] mKeyColumns;
+    private final int mLimit;
+    // Each input's next unmerged row; ties keep shard order, so with no sort order the inputs
+    // simply follow each other
+    private final PriorityQueue<Head> mHeads;
+    // Input cursor and row of each position merged so far
+    private int[] mRowCursors = new int[INITIAL_CAPACITY];
+    private int[] mRows = new int[INITIAL_CAPACITY];
+    private int mMerged;
+    // For DISTINCT: rows merged under the current sort key. Duplicates share a sort key, so only
+    // these can be repeated by a later row; with no sort order this holds every row.
+    private final Set<List<Object>> mGroupRows;
+    private Object[] mGroupKey;
+    private Cursor mCurrent;
+
+    private static class Head implements Comparable<Head> {
+        final int cursor;
+        final int row;
+        final Object[] key;
+        final PetSortOrder order;
+
+        Head(int cursor, int row, Object[] key, PetSortOrder order) {
+            this.cursor = cursor;
+            this.row = row;
+            this.key = key;
+            this.order = order;
+        }
+
+        @Override
+        public int compareTo(Head other) {
+            int result = order.compare(key, other.key);
+            // Ties keep shard order, so the merge is stable
+            return result != 0 ? result : cursor - other.cursor;
+        }
+    }
+
+    /**
+     * @param order the order each input is sorted by; may be empty
+     * @param limit the most rows to return, or a negative number for all of them
+     */
+    PetMergeCursor(Cursor[] cursors, int visibleColumns, PetSortOrder order, boolean distinct, int limit) {
+        mCursors = cursors;
+        mColumnNames = Arrays.copyOf(cursors[0].getColumnNames(), visibleColumns);
+        mVisibleColumns = visibleColumns;
+        mOrder = order;
+        mLimit = limit;
+        mGroupRows = distinct ? new HashSet<List<Object>>() : null;
+        mKeyColumns = new int[order.getColumns().length];
+        for (int i = 0; i < mKeyColumns.length; i++) {
+            mKeyColumns[i] = cursors[0].getColumnIndexOrThrow(order.getColumns()[i]);
+        }
+        mHeads = new PriorityQueue<>(Math.max(cursors.length, 1));
+        for (int i = 0; i < cursors.length; i++) {
+            if (cursors[i].moveToFirst()) {
+                mHeads.add(new Head(i, 0, PetSortOrder.readKey(cursors[i], mKeyColumns), order));
+            }
+        }
+    }
+
+    /**
+     * Merges rows until {@code position} exists or the inputs run out. Returns whether it exists.
+     */
+    private boolean mergeThrough(int position) {
+        if (position < mMerged) {
+            return true;
+        }
+        while (mMerged <= position && mergeNext()) {
+            // Keep merging
+        }
+        // Merging moved the inputs; put the current row back
+        if (mPos >= 0 && mPos < mMerged) {
+            mCursors[mRowCursors[mPos]].moveToPosition(mRows[mPos]);
+        }
+        return position < mMerged;
+    }
+
+    // Adds the next row to the merged positions; false once the limit or the inputs are reached
+    private boolean mergeNext() {
+        if (mLimit >= 0 && mMerged >= mLimit) {
+            return false;
+        }
+        Head head;
+        while ((head = mHeads.poll()) != null) {
+            Cursor cursor = mCursors[head.cursor];
+            cursor.moveToPosition(head.row);
+            boolean added = mGroupRows == null || isNewInGroup(head.key, cursor);
+            if (added) {
+                if (mMerged == mRows.length) {
+                    mRows = Arrays.copyOf(mRows, mMerged * 2);
+                    mRowCursors = Arrays.copyOf(mRowCursors, mMerged * 2);
+                }
+                mRowCursors[mMerged] = head.cursor;
+                mRows[mMerged] = head.row;
+                mMerged++;
+            }
+            if (cursor.moveToNext()) {
+                mHeads.add(new Head(head.cursor, cursor.getPosition(), PetSortOrder.readKey(cursor, mKeyColumns), mOrder));
+            }
+            if (added) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isNewInGroup(Object[] key, Cursor cursor) {
+        if (mGroupKey == null || mOrder.compare(key, mGroupKey) != 0) {
+            mGroupRows.clear();
+            mGroupKey = key;
+        }
+        return mGroupRows.add(readRow(cursor, mVisibleColumns));
+    }
+
+    private static List<Object> readRow(Cursor cursor, int columns) {
+        Object[] row = new Object[columns];
+        for (int i = 0; i < columns; i++) {
+            Object value = PetSortOrder.readValue(cursor, i);
+            // Arrays don't implement equals(); buffers compare by content
+            row[i] = value instanceof byte[] ? ByteBuffer.wrap((byte[]) value) : value;
+        }
+        return Arrays.asList(row);
+    }
+
+    @Override
+    public int getCount() {
+        mergeThrough(Integer.MAX_VALUE - 1);
+        return mMerged;
+    }
+
+    // AbstractCursor checks the position against getCount(), which would merge every row
+    @Override
+    public boolean moveToPosition(int position) {
+        if (position < 0) {
+            mPos = -1;
+            return false;
+        }
+        if (!mergeThrough(position)) {
+            mPos = mMerged;
+            return false;
+        }
+        if (position == mPos) {
+            return true;
+        }
+        if (!onMove(mPos, position)) {
+            mPos = -1;
+            return false;
+        }
+        mPos = position;
+        return true;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        mCurrent = mCursors[mRowCursors[newPosition]];
+        return mCurrent.moveToPosition(mRows[newPosition]);
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mCurrent.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mCurrent.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mCurrent.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mCurrent.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mCurrent.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mCurrent.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mCurrent.getBlob(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        return mCurrent.getType(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mCurrent.isNull(column);
+    }
+
+    @Override
+    public void deactivate() {
+        super.deactivate();
+        for (Cursor cursor : mCursors) {
+            cursor.deactivate();
+        }
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        for (Cursor cursor : mCursors) {
+            cursor.close();
+        }
+    }
+}
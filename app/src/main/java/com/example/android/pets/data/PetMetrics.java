@@ -0,0 +1,278 @@
+package com.example.android.pets.data;
+
+import android.database.CrossProcessCursorWrapper;
+import android.database.Cursor;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Trace;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and volume counters for the provider's entry points, kept per operation and per
+ * {@link android.content.UriMatcher} match code. Recording is lock-free: each (operation, match)
+ * pair owns a fixed set of atomics, so concurrent binder threads never wait on one another.
+ * <p>
+ * Latencies go into power-of-two microsecond buckets, which keeps the histogram small and fixed
+ * while still separating a 50us cache hit from a 5ms scan. Percentiles read from a snapshot are
+ * bucket upper bounds, so they over-estimate by at most a factor of two.
+ * <p>
+ * On API 18+ each operation is also wrapped in an {@link Trace} section named after it, so
+ * systrace captures show time spent inside the provider.
+ * <p>
+ * Query latency is recorded when the cursor is returned, but its rows only once they are known;
+ * see {@link #countRows}.
+ */
+public class PetMetrics {
+    public static final int QUERY = 0;
+    public static final int INSERT = 1;
+    public static final int BULK_INSERT = 2;
+    public static final int UPDATE = 3;
+    public static final int DELETE = 4;
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulk_insert", "update", "delete"};
+    public static final int BUCKET_COUNT = 24;      // the last bucket holds everything over ~8.4s
+    private static final boolean TRACE_SECTIONS = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    // Snapshot keys; see PetContract.METHOD_GET_METRICS
+    public static final String KEY_COUNT = "count";
+    public static final String KEY_ERRORS = "errors";
+    public static final String KEY_ROWS = "rows";
+    public static final String KEY_TOTAL_NANOS = "total_nanos";
+    public static final String KEY_MAX_NANOS = "max_nanos";
+    public static final String KEY_P50_MICROS = "p50_micros";
+    public static final String KEY_P90_MICROS = "p90_micros";
+    public static final String KEY_P99_MICROS = "p99_micros";
+    public static final String KEY_BUCKETS = "buckets";
+    public static final String KEY_HITS = "hits";
+    public static final String KEY_MISSES = "misses";
+    public static final String KEY_EVICTIONS = "evictions";
+    public static final String KEY_SIZE = "size";
+
+    private static class Stats {
+        final String traceName;
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        Stats(String traceName) {
+            this.traceName = traceName;
+        }
+    }
+
+    private final int[] mMatchCodes;
+    // [operation][match code index]; the extra last column collects unmatched URIs
+    private final Stats[][] mStats;
+
+    public PetMetrics(int... matchCodes) {
+        mMatchCodes = matchCodes.clone();
+        mStats = new Stats[OPERATION_NAMES.length][matchCodes.length + 1];
+        for (int op = 0; op < OPERATION_NAMES.length; op++) {
+            for (int i = 0; i <= matchCodes.length; i++) {
+                // Trace section names are limited to 127 characters; these are far shorter
+                mStats[op][i] = new Stats("PetProvider." + OPERATION_NAMES[op] + ":"
+                        + (i < matchCodes.length ? String.valueOf(matchCodes[i]) : "none"));
+            }
+        }
+    }
+
+    /**
+     * Marks the start of an operation and returns the start time to hand to {@link #end}.
+     * Must be paired with {@code end} on the same thread.
+     */
+    public long begin(int operation, int match) {
+        if (TRACE_SECTIONS) {
+            Trace.beginSection(stats(operation, match).traceName);
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records one finished operation. {@code rows} is rows affected for writes; queries pass 0
+     * and have their rows added by {@link #countRows}. It is ignored for failed operations.
+     */
+    public void end(int operation, int match, long startNanos, long rows, boolean failed) {
+        long elapsed = System.nanoTime() - startNanos;
+        if (TRACE_SECTIONS) {
+            Trace.endSection();
+        }
+        Stats stats = stats(operation, match);
+        stats.count.incrementAndGet();
+        stats.totalNanos.addAndGet(elapsed);
+        stats.buckets.incrementAndGet(bucketFor(elapsed));
+        long max = stats.maxNanos.get();
+        while (elapsed > max && !stats.maxNanos.compareAndSet(max, elapsed)) {
+            max = stats.maxNanos.get();
+        }
+        if (failed) {
+            stats.errors.incrementAndGet();
+        } else if (rows > 0) {
+            stats.rows.addAndGet(rows);
+        }
+    }
+
+    /**
+     * Wraps a query's cursor so its rows are added to the query counters without making the
+     * provider count them up front, which would fill the first window before the caller asks for
+     * anything. The full count is recorded if the caller asks for it; otherwise, on close, the
+     * rows the caller moved through.
+     */
+    public Cursor countRows(int match, Cursor cursor) {
+        return new RowCountingCursor(cursor, stats(QUERY, match));
+    }
+
+    private static class RowCountingCursor extends CrossProcessCursorWrapper {
+        private final Stats mStats;
+        private boolean mRecorded;
+        private int mRowsSeen;
+
+        RowCountingCursor(Cursor cursor, Stats stats) {
+            super(cursor);
+            mStats = stats;
+        }
+
+        @Override
+        public int getCount() {
+            int count = super.getCount();
+            if (!mRecorded) {
+                mRecorded = true;
+                mStats.rows.addAndGet(count);
+            }
+            return count;
+        }
+
+        @Override
+        public boolean move(int offset) {
+            return seen(super.move(offset));
+        }
+
+        @Override
+        public boolean moveToPosition(int position) {
+            return seen(super.moveToPosition(position));
+        }
+
+        @Override
+        public boolean moveToFirst() {
+            return seen(super.moveToFirst());
+        }
+
+        @Override
+        public boolean moveToLast() {
+            return seen(super.moveToLast());
+        }
+
+        @Override
+        public boolean moveToNext() {
+            return seen(super.moveToNext());
+        }
+
+        @Override
+        public boolean moveToPrevious() {
+            return seen(super.moveToPrevious());
+        }
+
+        @Override
+        public void close() {
+            if (!mRecorded) {
+                mRecorded = true;
+                mStats.rows.addAndGet(mRowsSeen);
+            }
+            super.close();
+        }
+
+        private boolean seen(boolean moved) {
+            if (moved) {
+                mRowsSeen = Math.max(mRowsSeen, getPosition() + 1);
+            }
+            return moved;
+        }
+    }
+
+    private Stats stats(int operation, int match) {
+        Stats[] row = mStats[operation];
+        for (int i = 0; i < mMatchCodes.length; i++) {
+            if (mMatchCodes[i] == match) {
+                return row[i];
+            }
+        }
+        return row[mMatchCodes.length];
+    }
+
+    // Bucket i holds latencies below 2^i microseconds
+    private static int bucketFor(long nanos) {
+        long micros = nanos / 1000;
+        return Math.min(BUCKET_COUNT - 1, 64 - Long.numberOfLeadingZeros(micros));
+    }
+
+    /**
+     * Returns every (operation, match code) pair that has recorded anything, keyed
+     * "operation:match", each holding the KEY_* values. Counters are read one at a time while
+     * writers continue, so values within an entry may be off by an operation or two.
+     */
+    public Bundle snapshot() {
+        Bundle snapshot = new Bundle();
+        for (int op = 0; op < OPERATION_NAMES.length; op++) {
+            for (int i = 0; i <= mMatchCodes.length; i++) {
+                Stats stats = mStats[op][i];
+                long count = stats.count.get();
+                if (count == 0) {
+                    continue;
+                }
+                long[] buckets = new long[BUCKET_COUNT];
+                for (int b = 0; b < BUCKET_COUNT; b++) {
+                    buckets[b] = stats.buckets.get(b);
+                }
+                Bundle entry = new Bundle();
+                entry.putLong(KEY_COUNT, count);
+                entry.putLong(KEY_ERRORS, stats.errors.get());
+                entry.putLong(KEY_ROWS, stats.rows.get());
+                entry.putLong(KEY_TOTAL_NANOS, stats.totalNanos.get());
+                entry.putLong(KEY_MAX_NANOS, stats.maxNanos.get());
+                entry.putLong(KEY_P50_MICROS, percentile(buckets, 0.50));
+                entry.putLong(KEY_P90_MICROS, percentile(buckets, 0.90));
+                entry.putLong(KEY_P99_MICROS, percentile(buckets, 0.99));
+                entry.putLongArray(KEY_BUCKETS, buckets);
+                snapshot.putBundle(OPERATION_NAMES[op] + ":"
+                        + (i < mMatchCodes.length ? String.valueOf(mMatchCodes[i]) : "none"), entry);
+            }
+        }
+        return snapshot;
+    }
+
+    private static long percentile(long[] buckets, double fraction) {
+        long total = 0;
+        for (long bucket : buckets) {
+            total += bucket;
+        }
+        long target = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for (int b = 0; b < buckets.length; b++) {
+            seen += buckets[b];
+            if (seen >= target && seen > 0) {
+                return 1L << b;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Zeroes every counter. Operations in flight while resetting may land on either side.
+     */
+    public void reset() {
+        for (Stats[] row : mStats) {
+            for (Stats stats : row) {
+                stats.count.set(0);
+                stats.errors.set(0);
+                stats.rows.set(0);
+                stats.totalNanos.set(0);
+                stats.maxNanos.set(0);
+                for (int b = 0; b < BUCKET_COUNT; b++) {
+                    stats.buckets.set(b, 0);
+                }
+            }
+        }
+    }
+}
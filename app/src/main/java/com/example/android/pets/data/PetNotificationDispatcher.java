@@ -0,0 +1,165 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Coalesces change notifications for the pets provider.
+ * <p>
+ * Writes queue the narrowest URI they touched: a single pet's item URI for single-row changes,
+ * the table URI otherwise. Queued URIs are deduplicated and sent together at most once per
+ * window, so a burst of writes costs observers one requery instead of one per write.
+ * <p>
+ * Suspending is per thread: while a thread is suspended, the URIs it notifies are held aside and
+ * only join the queue when its last {@link #resume()} call arrives. Other threads' notifications
+ * keep flowing meanwhile.
+ */
+public class PetNotificationDispatcher {
+    public static final long DEFAULT_WINDOW_MILLIS = 100;
+
+    private final ContentResolver mResolver;
+    private final Handler mHandler;
+    private final long mWindowMillis;
+    private final Set<Uri> mPendingUris = new LinkedHashSet<>();
+    // URIs notified by the calling thread while it is suspended; null when it isn't
+    private final ThreadLocal<Set<Uri>> mHeldUris = new ThreadLocal<>();
+    private final ThreadLocal<int[]> mSuspendDepth = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[1];
+        }
+    };
+    private boolean mFlushScheduled = false;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            dispatchPending();
+        }
+    };
+
+    public PetNotificationDispatcher(ContentResolver resolver) {
+        this(resolver, Looper.getMainLooper(), DEFAULT_WINDOW_MILLIS);
+    }
+
+    public PetNotificationDispatcher(ContentResolver resolver, Looper looper, long windowMillis) {
+        mResolver = resolver;
+        mHandler = new Handler(looper);
+        mWindowMillis = windowMillis;
+    }
+
+    public void notifyItemChange(long id) {
+        notifyChange(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id));
+    }
+
+    public void notifyTableChange() {
+        notifyChange(PetEntry.CONTENT_URI);
+    }
+
+    /**
+     * Queues a notification for {@code uri}, or holds it until the calling thread resumes if it
+     * is suspended. A URI whose ancestor is already queued is dropped, since notifying a URI also
+     * reaches observers of every URI below it.
+     */
+    public void notifyChange(Uri uri) {
+        Set<Uri> held = mHeldUris.get();
+        if (held != null) {
+            addCollapsed(held, uri);
+            return;
+        }
+        synchronized (this) {
+            addCollapsed(mPendingUris, uri);
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Holds back the calling thread's notifications until a matching {@link #resume()} on the
+     * same thread. Calls nest.
+     */
+    public void suspend() {
+        if (mSuspendDepth.get()[0]++ == 0) {
+            mHeldUris.set(new LinkedHashSet<Uri>());
+        }
+    }
+
+    public void resume() {
+        int[] depth = mSuspendDepth.get();
+        if (depth[0] == 0 || --depth[0] > 0) {
+            return;
+        }
+        Set<Uri> held = mHeldUris.get();
+        mHeldUris.remove();
+        synchronized (this) {
+            for (Uri uri : held) {
+                addCollapsed(mPendingUris, uri);
+            }
+            scheduleFlush();
+        }
+    }
+
+    /**
+     * Sends everything queued right away. URIs held by suspended threads stay held.
+     */
+    public void flush() {
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+        }
+        dispatchPending();
+    }
+
+    // Adds uri unless an ancestor is already in uris, dropping any of its descendants
+    private static void addCollapsed(Set<Uri> uris, Uri uri) {
+        for (Iterator<Uri> iterator = uris.iterator(); iterator.hasNext(); ) {
+            Uri pending = iterator.next();
+            if (isAncestorOrSelf(pending, uri)) {
+                return;
+            }
+            if (isAncestorOrSelf(uri, pending)) {
+                iterator.remove();
+            }
+        }
+        uris.add(uri);
+    }
+
+    // Fixed window rather than a sliding debounce, so sustained writes still notify at a bounded rate
+    private void scheduleFlush() {
+        if (!mFlushScheduled && !mPendingUris.isEmpty()) {
+            mFlushScheduled = true;
+            mHandler.postDelayed(mFlushRunnable, mWindowMillis);
+        }
+    }
+
+    private void dispatchPending() {
+        List<Uri> uris;
+        synchronized (this) {
+            mFlushScheduled = false;
+            uris = new ArrayList<>(mPendingUris);
+            mPendingUris.clear();
+        }
+        for (Uri uri : uris) {
+            mResolver.notifyChange(uri, null);
+        }
+    }
+
+    private static boolean isAncestorOrSelf(Uri ancestor, Uri uri) {
+        if (!ancestor.getAuthority().equals(uri.getAuthority())) {
+            return false;
+        }
+        List<String> ancestorSegments = ancestor.getPathSegments();
+        List<String> segments = uri.getPathSegments();
+        return segments.size() >= ancestorSegments.size()
+                && segments.subList(0, ancestorSegments.size()).equals(ancestorSegments);
+    }
+}
@@ -0,0 +1,365 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * In-memory prefix lookup over the distinct pet names and breeds, for editor autocomplete.
+ * <p>
+ * Each field is a sorted array of lower-cased keys with the original spellings alongside, so a
+ * lookup is one binary search plus a short forward scan, with no database access. The arrays are
+ * immutable snapshots swapped in whole, so lookups never lock. They are loaded in the background
+ * the first time {@link #getInstance} is called: names by walking the name index and counting
+ * each name's pets, breeds from the breed summary table. Each field holds at most
+ * {@link #MAX_TERMS} values; past that the most common are kept, and a warning is logged.
+ * <p>
+ * Single-pet change notifications add that pet's name and breed in place. Anything broader
+ * schedules a reload. Values that disappear stay suggestible until the next reload, which only
+ * costs a stale suggestion.
+ */
+public class PetPrefixIndex {
+    private static final String LOG_TAG = PetPrefixIndex.class.getSimpleName();
+    public static final int MAX_TERMS = 10000;
+
+    private static PetPrefixIndex sInstance;
+
+    /**
+     * Immutable sorted term list. {@code keys[i]} is {@code values[i]} lower-cased.
+     */
+    private static class Terms {
+        static final Terms EMPTY = new Terms(new String[0], new String[0]);
+
+        final String[] keys;
+        final String[] values;
+
+        Terms(String[] keys, String[] values) {
+            this.keys = keys;
+            this.values = values;
+        }
+
+        static Terms of(List<String> rawValues) {
+            List<String> values = new ArrayList<>(rawValues.size());
+            for (String value : rawValues) {
+                if (value != null && !value.trim().isEmpty()) {
+                    values.add(value.trim());
+                }
+            }
+            String[] keys = new String[values.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = toKey(values.get(i));
+            }
+            // Sort both arrays by key through an index permutation
+            Integer[] order = new Integer[keys.length];
+            for (int i = 0; i < order.length; i++) {
+                order[i] = i;
+            }
+            final String[] sortKeys = keys;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    return sortKeys[a].compareTo(sortKeys[b]);
+                }
+            });
+            List<String> sortedKeys = new ArrayList<>(keys.length);
+            List<String> sortedValues = new ArrayList<>(keys.length);
+            for (int index : order) {
+                // Case variants of one key collapse into the first spelling seen
+                if (sortedKeys.isEmpty() || !sortedKeys.get(sortedKeys.size() - 1).equals(keys[index])) {
+                    sortedKeys.add(keys[index]);
+                    sortedValues.add(values.get(index));
+                }
+            }
+            return new Terms(sortedKeys.toArray(new String[sortedKeys.size()]),
+                    sortedValues.toArray(new String[sortedValues.size()]));
+        }
+
+        /**
+         * Returns a copy with {@code value} added, or this instance if it is already present or
+         * the list is full.
+         */
+        Terms with(String value) {
+            if (value == null || value.trim().isEmpty() || keys.length >= MAX_TERMS) {
+                return this;
+            }
+            value = value.trim();
+            String key = toKey(value);
+            int position = Arrays.binarySearch(keys, key);
+            if (position >= 0) {
+                return this;
+            }
+            position = -position - 1;
+            String[] newKeys = new String[keys.length + 1];
+            String[] newValues = new String[values.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, position);
+            System.arraycopy(values, 0, newValues, 0, position);
+            newKeys[position] = key;
+            newValues[position] = value;
+            System.arraycopy(keys, position, newKeys, position + 1, keys.length - position);
+            System.arraycopy(values, position, newValues, position + 1, values.length - position);
+            return new Terms(newKeys, newValues);
+        }
+
+        List<String> startingWith(String prefix, int limit) {
+            String key = toKey(prefix);
+            int position = Arrays.binarySearch(keys, key);
+            if (position < 0) {
+                position = -position - 1;
+            }
+            List<String> matches = new ArrayList<>(Math.min(limit, 16));
+            while (position < keys.length && matches.size() < limit && keys[position].startsWith(key)) {
+                matches.add(values[position++]);
+            }
+            return matches;
+        }
+    }
+
+    // One value's run in a sorted column, see readMostCommon()
+    private static class Tally {
+        final String value;
+        int count = 1;
+
+        Tally(String value) {
+            this.value = value;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final ExecutorService mExecutor;
+    private volatile Terms mNames = Terms.EMPTY;
+    private volatile Terms mBreeds = Terms.EMPTY;
+    // Guarded by this; true while a reload is queued but hasn't started
+    private boolean mReloadPending = false;
+
+    private final Runnable mReloadRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (PetPrefixIndex.this) {
+                mReloadPending = false;
+            }
+            reload();
+        }
+    };
+
+    public static synchronized PetPrefixIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetPrefixIndex(context.getApplicationContext().getContentResolver());
+        }
+        return sInstance;
+    }
+
+    private PetPrefixIndex(ContentResolver resolver) {
+        mResolver = resolver;
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Delivered on a binder thread; all real work is handed to the executor
+        mResolver.registerContentObserver(PetEntry.CONTENT_URI, true, new ContentObserver(null) {
+            @Override
+            public void onChange(boolean selfChange) {
+                onChange(selfChange, null);
+            }
+
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                onPetsChanged(uri);
+            }
+        });
+        scheduleReload();
+    }
+
+    /**
+     * Up to {@code limit} distinct names starting with {@code prefix}, ignoring case, in
+     * alphabetical order. Empty until the first load finishes.
+     */
+    public List<String> suggestNames(String prefix, int limit) {
+        return suggest(mNames, prefix, limit);
+    }
+
+    /**
+     * As {@link #suggestNames}, for breeds.
+     */
+    public List<String> suggestBreeds(String prefix, int limit) {
+        return suggest(mBreeds, prefix, limit);
+    }
+
+    private static List<String> suggest(Terms terms, String prefix, int limit) {
+        if (prefix == null || prefix.trim().isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+        return terms.startingWith(prefix.trim(), limit);
+    }
+
+    private void onPetsChanged(Uri uri) {
+        if (uri != null && PetProvider.sUriMatcher.match(uri) == PetProvider.PETS_ID) {
+            final long id = ContentUris.parseId(uri);
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    addPet(id);
+                }
+            });
+        } else {
+            scheduleReload();
+        }
+    }
+
+    private void scheduleReload() {
+        synchronized (this) {
+            if (mReloadPending) {
+                return;
+            }
+            mReloadPending = true;
+        }
+        mExecutor.execute(mReloadRunnable);
+    }
+
+    // Executor thread only
+    private void addPet(long id) {
+        Cursor cursor = mResolver.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                new String[] {PetEntry.COLUMN_PET_NAME, PetEntry.COLUMN_PET_BREED}, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (cursor.moveToFirst()) {
+                mNames = mNames.with(cursor.getString(0));
+                mBreeds = mBreeds.with(cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Executor thread only
+    private void reload() {
+        long startTime = System.nanoTime();
+        try {
+            // The ordered scan reads pets_name_index alone, and groups each name's pets together
+            List<String> names = readMostCommon(mResolver.query(PetEntry.CONTENT_URI,
+                    new String[] {PetEntry.COLUMN_PET_NAME}, null, null, PetEntry.COLUMN_PET_NAME));
+            // Most common first, so one row past the cap tells whether any were left out
+            Uri breedsUri = PetStatsEntry.BREEDS_URI.buildUpon()
+                    .appendQueryParameter(PetContract.QUERY_PARAM_LIMIT, String.valueOf(MAX_TERMS + 1))
+                    .build();
+            List<String> breeds = readColumn(mResolver.query(breedsUri,
+                    new String[] {PetEntry.COLUMN_PET_BREED}, null, null, null));
+            if (breeds.size() > MAX_TERMS) {
+                Log.w(LOG_TAG, "More than " + MAX_TERMS + " breeds; keeping the most common");
+                breeds = breeds.subList(0, MAX_TERMS);
+            }
+            mNames = Terms.of(names);
+            mBreeds = Terms.of(breeds);
+            Log.i(LOG_TAG, "Loaded " + mNames.keys.length + " names and " + mBreeds.keys.length + " breeds in "
+                    + ((System.nanoTime() - startTime) / 1000000) + " ms");
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Could not load autocomplete terms", e);
+        }
+    }
+
+    /**
+     * Reads a single column sorted by itself and returns its {@link #MAX_TERMS} most common
+     * values, counting runs of equal values as they go by. Only the values being kept are held.
+     */
+    private static List<String> readMostCommon(Cursor cursor) {
+        List<String> values = new ArrayList<>();
+        if (cursor == null) {
+            return values;
+        }
+        // Least common at the head, so it is the one dropped once the cap is passed
+        PriorityQueue<Tally> kept = new PriorityQueue<>(MAX_TERMS + 1, new Comparator<Tally>() {
+            @Override
+            public int compare(Tally a, Tally b) {
+                return a.count < b.count ? -1 : (a.count == b.count ? 0 : 1);
+            }
+        });
+        boolean capped = false;
+        try {
+            Tally run = null;
+            while (cursor.moveToNext()) {
+                String value = cursor.getString(0);
+                if (run != null && run.value.equals(value)) {
+                    run.count++;
+                    continue;
+                }
+                capped |= keep(kept, run);
+                run = value != null ? new Tally(value) : null;
+            }
+            capped |= keep(kept, run);
+        } finally {
+            cursor.close();
+        }
+        if (capped) {
+            Log.w(LOG_TAG, "More than " + MAX_TERMS + " distinct names; keeping the most common");
+        }
+        for (Tally tally : kept) {
+            values.add(tally.value);
+        }
+        return values;
+    }
+
+    // Adds a finished run, dropping the least common if that passes the cap; true if one was dropped
+    private static boolean keep(PriorityQueue<Tally> kept, Tally run) {
+        if (run == null) {
+            return false;
+        }
+        kept.add(run);
+        if (kept.size() > MAX_TERMS) {
+            kept.poll();
+            return true;
+        }
+        return false;
+    }
+
+    private static List<String> readColumn(Cursor cursor) {
+        List<String> values = new ArrayList<>();
+        if (cursor == null) {
+            return values;
+        }
+        try {
+            while (cursor.moveToNext()) {
+                // Skips the breed summary's no-breed row
+                if (!cursor.isNull(0)) {
+                    values.add(cursor.getString(0));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return values;
+    }
+
+    private static String toKey(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+}
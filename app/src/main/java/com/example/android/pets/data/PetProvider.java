@@ -1,56 +1,224 @@
 package com.example.android.pets.data;
 
+import android.annotation.TargetApi;
+import android.content.ClipDescription;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.Resources;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.ParcelFileDescriptor;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.text.TextUtils;
 import android.util.Log;
-import android.widget.Toast;
 
 import com.example.android.pets.R;
+import com.example.android.pets.data.PetContract.BreedEntry;
+import com.example.android.pets.data.PetContract.ImportProgressEntry;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
 import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 public class PetProvider extends ContentProvider {
     private final String LOG_TAG = PetProvider.class.getSimpleName();
-    private PetDBHelper DBHelper;
+    private PetShardedStore mStore;
     private final int BAD_ID = -1;
     private final int zero = 0;
     public static final int PETS = 100;
     public static final int PETS_ID = 101;
     public static final int PETS_NAME = 102;
+    public static final int PETS_SEARCH = 103;
+    public static final int PETS_CHANGES = 104;
+    public static final int STATS_GENDER = 200;
+    public static final int STATS_WEIGHT = 201;
+    public static final int STATS_BREEDS = 202;
+    // Resolves a bound breed name to its dictionary id; NULL for a null or unknown name
+    private static final String SQL_BREED_ID = "(SELECT " + BreedEntry._ID + " FROM " + BreedEntry.TABLE_NAME
+            + " WHERE " + BreedEntry.COLUMN_BREED_NAME + " = ?)";
+    private static final String SQL_INTERN_BREED = "INSERT OR IGNORE INTO " + BreedEntry.TABLE_NAME
+            + " (" + BreedEntry.COLUMN_BREED_NAME + ") VALUES (?)";
+    private static final String SQL_INSERT_PET = "INSERT INTO " + PetEntry.TABLE_NAME + " ("
+            + PetEntry.COLUMN_PET_NAME + ", "
+            + PetEntry.COLUMN_PET_BREED_ID + ", "
+            + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, " + SQL_BREED_ID + ", ?, ?)";
+    // Where each PET_ATTRIBUTE_LIST column is stored in the pets table, and the SQL that turns its
+    // bound value into the stored one
+    private static final String[] ATTRIBUTE_STORAGE_COLUMNS = {
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED_ID,
+            PetEntry.COLUMN_PET_GENDER,
+            PetEntry.COLUMN_PET_WEIGHT};
+    private static final String[] ATTRIBUTE_STORAGE_VALUES = {"?", SQL_BREED_ID, "?", "?"};
+    // Newest sequence number ever handed out, which pruning doesn't lower; 0 before any change
+    private static final String SQL_CHANGE_SEQUENCE = "SELECT IFNULL(MAX(seq), 0) FROM sqlite_sequence"
+            + " WHERE name = '" + PetChangeEntry.TABLE_NAME + "'";
+    private static final String SQL_OLDEST_CHANGE = "SELECT IFNULL(MIN(" + PetChangeEntry.COLUMN_SEQUENCE + "), 0)"
+            + " FROM " + PetChangeEntry.TABLE_NAME;
+    // Each changed pet's latest change after the bound sequence, with its current values. The
+    // tables are joined directly rather than through the view so that every join is a primary
+    // key lookup per change.
+    private static final String SQL_CHANGES_SINCE = "SELECT "
+            + "c." + PetChangeEntry.COLUMN_SEQUENCE + " AS " + PetChangeEntry.COLUMN_SEQUENCE + ", "
+            + "c." + PetChangeEntry.COLUMN_OPERATION + " AS " + PetChangeEntry.COLUMN_OPERATION + ", "
+            + "c." + PetChangeEntry.COLUMN_PET_ID + " AS " + PetEntry._ID + ", "
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_NAME + " AS " + PetEntry.COLUMN_PET_NAME + ", "
+            + BreedEntry.TABLE_NAME + "." + BreedEntry.COLUMN_BREED_NAME + " AS " + PetEntry.COLUMN_PET_BREED + ", "
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_GENDER + " AS " + PetEntry.COLUMN_PET_GENDER + ", "
+            + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_WEIGHT + " AS " + PetEntry.COLUMN_PET_WEIGHT
+            + " FROM " + PetChangeEntry.TABLE_NAME + " AS c"
+            + " LEFT JOIN " + PetEntry.TABLE_NAME + " ON " + PetEntry.TABLE_NAME + "." + PetEntry._ID + " = c." + PetChangeEntry.COLUMN_PET_ID
+            + " LEFT JOIN " + BreedEntry.TABLE_NAME + " ON " + BreedEntry.TABLE_NAME + "." + BreedEntry._ID + " = " + PetEntry.TABLE_NAME + "." + PetEntry.COLUMN_PET_BREED_ID
+            + " WHERE c." + PetChangeEntry.COLUMN_SEQUENCE + " IN (SELECT MAX(" + PetChangeEntry.COLUMN_SEQUENCE + ") FROM " + PetChangeEntry.TABLE_NAME
+            + " WHERE " + PetChangeEntry.COLUMN_SEQUENCE + " > ? GROUP BY " + PetChangeEntry.COLUMN_PET_ID + ")"
+            + " ORDER BY c." + PetChangeEntry.COLUMN_SEQUENCE;
+    private static final String SQL_PRUNE_CHANGES = "DELETE FROM " + PetChangeEntry.TABLE_NAME
+            + " WHERE " + PetChangeEntry.COLUMN_SEQUENCE + " <= (" + SQL_CHANGE_SEQUENCE + ") - " + PetChangeEntry.MAX_RETAINED_CHANGES;
+    private static final String SQL_SAVE_IMPORT_PROGRESS = "INSERT OR REPLACE INTO " + ImportProgressEntry.TABLE_NAME
+            + " (" + ImportProgressEntry.COLUMN_IMPORT_ID + ", " + ImportProgressEntry.COLUMN_RECORDS + ") VALUES (?, ?)";
+    private static final String SQL_IMPORT_PROGRESS = "SELECT IFNULL(MAX(" + ImportProgressEntry.COLUMN_RECORDS + "), 0)"
+            + " FROM " + ImportProgressEntry.TABLE_NAME + " WHERE " + ImportProgressEntry.COLUMN_IMPORT_ID + " = ?";
+    // Changed rows between prunes; pruning every write would cost a statement per write
+    private static final int PRUNE_INTERVAL = 1000;
+    // Per shard, since each shard keeps its own changelog
+    private AtomicIntegerArray mChangesSincePrune;
+    private PetNotificationDispatcher mNotifier;
+    private final PetRowCache mRowCache = new PetRowCache();
+    private static final String[] EXPORT_MIME_TYPES = {PetContract.MIME_TYPE_CSV, PetContract.MIME_TYPE_NDJSON};
+    private PetExporter mExporter;
+    private final PetMetrics mMetrics = new PetMetrics(PETS, PETS_ID, PETS_SEARCH, PETS_CHANGES, STATS_GENDER, STATS_WEIGHT, STATS_BREEDS);
+    private static final String STATEMENT_INSERT = "insert";
+    private static final String STATEMENT_INTERN_BREED = "intern_breed";
+    private static final String STATEMENT_DELETE_BY_ID = "delete_id";
+    private static final String STATEMENT_UPDATE_BY_ID = "update_id:";
     public static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);       // sUriMatcher - the "s" means that its static
 
     static {
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS, PETS);
         sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS_ID, PETS_ID);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS_SEARCH, PETS_SEARCH);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_PETS_CHANGES, PETS_CHANGES);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_STATS_GENDER, STATS_GENDER);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_STATS_WEIGHT, STATS_WEIGHT);
+        sUriMatcher.addURI(PetContract.CONTENT_AUTHORITY, PetContract.PATH_STATS_BREEDS, STATS_BREEDS);
     }
 
     @Override
     public boolean onCreate() {
-        DBHelper = new PetDBHelper(getContext());
+        mStore = new PetShardedStore(getContext(), getShardCount());
+        mChangesSincePrune = new AtomicIntegerArray(mStore.getShardCount());
+        mNotifier = new PetNotificationDispatcher(getContext().getContentResolver());
+        mExporter = new PetExporter(mStore.getHelper(zero));
         return false;
     }
 
+    /**
+     * How many databases to spread pets over, from {@code R.integer.pet_shard_count}. One keeps
+     * everything in pets.db; see {@link PetShardedStore} for what changes with more.
+     */
+    protected int getShardCount() {
+        try {
+            return getContext().getResources().getInteger(R.integer.pet_shard_count);
+        } catch (Resources.NotFoundException e) {
+            return 1;
+        }
+    }
+
     @Nullable
     @Override
     public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    /**
+     * Called instead of the five-argument query() from API 16. Cancelling the signal aborts the
+     * pets, page and search queries, including the initial cursor fill, with an
+     * {@link android.os.OperationCanceledException}; CursorLoader cancels this way when it is
+     * restarted while loading.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Nullable
+    @Override
+    public Cursor query(@NonNull Uri uri, @Nullable String[] projection, @Nullable String selection, @Nullable String[] selectionArgs, @Nullable String sortOrder, @Nullable CancellationSignal cancellationSignal) {
+        final int match = sUriMatcher.match(uri);
+        long startTime = mMetrics.begin(PetMetrics.QUERY, match);
+        Cursor cursor = null;
+        try {
+            cursor = queryMatch(uri, match, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+            return cursor != null ? mMetrics.countRows(match, cursor) : null;
+        } finally {
+            mMetrics.end(PetMetrics.QUERY, match, startTime, zero, cursor == null);
+        }
+    }
+
+    private Cursor queryMatch(Uri uri, int match, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
         Cursor cursor = null;
+        Uri notificationUri = uri;
         try {
-            SQLiteDatabase db = DBHelper.getReadableDatabase();
-            switch (sUriMatcher.match(uri)) {
+            switch (match) {
                 case PETS:
-                    cursor = db.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                    if (uri.getQueryParameter(PetContract.QUERY_PARAM_SORT_KEY) != null) {
+                        cursor = queryPetsPage(uri, projection, selection, selectionArgs, cancellationSignal);
+                    } else {
+                        // Every shard has the same schema, so one shard's plan stands for all
+                        PetCriteria.checkIndexUse(mStore.getHelper(zero).getReadableDatabase(), selection, selectionArgs);
+                        boolean distinct = uri.getBooleanQueryParameter(PetContract.QUERY_PARAM_DISTINCT, false);
+                        cursor = queryPets(distinct, projection, selection, selectionArgs, sortOrder, getLimit(uri), cancellationSignal);
+                    }
                     break;
                 case PETS_ID:
-                    selection = PetEntry._ID + "=?";
-                    selectionArgs = new String[]{String.valueOf(ContentUris.parseId(uri))};
-                    cursor = db.query(PetEntry.TABLE_NAME, projection, selection, selectionArgs, null, null, sortOrder);
+                    long id = ContentUris.parseId(uri);
+                    int shard = mStore.getShard(id);
+                    cursor = shard == BAD_ID
+                            ? new MatrixCursor(projection != null ? projection : PetEntry.PET_COLUMN_LIST, zero)
+                            : queryPetById(mStore.getHelper(shard).getReadableDatabase(), id, projection, sortOrder);
+                    break;
+                case PETS_SEARCH:
+                    cursor = searchPets(uri, projection, selection, selectionArgs, sortOrder, cancellationSignal);
+                    break;
+                case PETS_CHANGES:
+                    checkUnsharded(uri);
+                    cursor = queryChanges(mStore.getHelper(zero).getReadableDatabase(), ContentUris.parseId(uri), projection, getLimit(uri));
+                    // Changes are written along with the pets, which notify the pets URI
+                    notificationUri = PetEntry.CONTENT_URI;
+                    break;
+                case STATS_GENDER:
+                    cursor = mStore.querySummary(PetStatsEntry.TABLE_GENDER_COUNTS, PetEntry.COLUMN_PET_GENDER, projection,
+                            selection, selectionArgs, TextUtils.isEmpty(sortOrder) ? PetEntry.COLUMN_PET_GENDER : sortOrder, null);
+                    // Summaries change with every pet write, and those notify the pets URI
+                    notificationUri = PetEntry.CONTENT_URI;
+                    break;
+                case STATS_WEIGHT:
+                    cursor = mStore.querySummary(PetStatsEntry.TABLE_WEIGHT_HISTOGRAM, PetStatsEntry.COLUMN_WEIGHT_BUCKET, projection,
+                            selection, selectionArgs, TextUtils.isEmpty(sortOrder) ? PetStatsEntry.COLUMN_WEIGHT_BUCKET : sortOrder, null);
+                    notificationUri = PetEntry.CONTENT_URI;
+                    break;
+                case STATS_BREEDS:
+                    String limit = getLimit(uri);
+                    cursor = mStore.querySummary(PetStatsEntry.TABLE_BREED_COUNTS, PetEntry.COLUMN_PET_BREED, projection,
+                            selection, selectionArgs, TextUtils.isEmpty(sortOrder) ? PetStatsEntry.COLUMN_COUNT + " DESC" : sortOrder,
+                            limit != null ? limit : String.valueOf(PetStatsEntry.DEFAULT_TOP_BREEDS));
+                    notificationUri = PetEntry.CONTENT_URI;
                     break;
                 default:
                     throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_invalid_uri));
@@ -61,55 +229,534 @@ public class PetProvider extends ContentProvider {
         if (cursor == null) {
             return null;
         } else {
-            cursor.setNotificationUri(getContext().getContentResolver(), uri);
+            cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
             return cursor;
         }
     }
 
+    /**
+     * Serves single-pet reads from the row cache when every projected column is a plain pet
+     * column, falling back to SQLite on a miss and caching the full row it reads.
+     */
+    private Cursor queryPetById(SQLiteDatabase db, long id, String[] projection, String sortOrder) {
+        String[] columns = projection != null ? projection : PetEntry.PET_COLUMN_LIST;
+        int[] columnPositions = new int[columns.length];
+        for (int i = zero; i < columns.length; i++) {
+            columnPositions[i] = Arrays.asList(PetEntry.PET_COLUMN_LIST).indexOf(columns[i]);
+            if (columnPositions[i] < zero) {
+                // Expression or unknown column; let SQLite evaluate it
+                return db.query(PetEntry.VIEW_NAME, projection, PetEntry._ID + "=?",
+                        new String[]{String.valueOf(id)}, null, null, sortOrder);
+            }
+        }
+        Object[] row = mRowCache.get(id);
+        if (row == null) {
+            long generation = mRowCache.getGeneration();
+            Cursor rowCursor = db.query(PetEntry.VIEW_NAME, PetEntry.PET_COLUMN_LIST, PetEntry._ID + "=?",
+                    new String[]{String.valueOf(id)}, null, null, null);
+            try {
+                if (rowCursor.moveToFirst()) {
+                    row = new Object[] {
+                            rowCursor.getLong(0),
+                            rowCursor.getString(1),
+                            rowCursor.getString(2),
+                            rowCursor.getInt(3),
+                            rowCursor.getInt(4)};
+                    mRowCache.put(id, row, generation);
+                }
+            } finally {
+                rowCursor.close();
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(columns, 1);
+        if (row != null) {
+            Object[] values = new Object[columns.length];
+            for (int i = zero; i < columns.length; i++) {
+                values[i] = row[columnPositions[i]];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    /**
+     * Returns one keyset page: rows strictly after the (sort key, _ID) position given in the URI,
+     * ordered by the sort key then _ID. Unlike OFFSET, each page is an index range seek, so its
+     * cost does not depend on how deep into the table it starts.
+     */
+    private Cursor queryPetsPage(Uri uri, String[] projection, String selection, String[] selectionArgs, CancellationSignal cancellationSignal) {
+        String sortKey = uri.getQueryParameter(PetContract.QUERY_PARAM_SORT_KEY);
+        if (!isPageSortKey(sortKey)) {
+            throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_invalid_uri) + " " + uri);
+        }
+        List<String> args = new ArrayList<>();
+        StringBuilder pageSelection = new StringBuilder();
+        if (!TextUtils.isEmpty(selection)) {
+            pageSelection.append('(').append(selection).append(')');
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        String afterId = uri.getQueryParameter(PetContract.QUERY_PARAM_AFTER_ID);
+        if (afterId != null) {
+            if (pageSelection.length() > zero) {
+                pageSelection.append(" AND ");
+            }
+            if (PetEntry._ID.equals(sortKey)) {
+                pageSelection.append(PetEntry._ID).append(" > ?");
+            } else {
+                String afterKey = uri.getQueryParameter(PetContract.QUERY_PARAM_AFTER_KEY);
+                if (afterKey == null) {
+                    throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_invalid_uri) + " " + uri);
+                }
+                // Written as a range on the sort key so the index seek does the work; the OR only
+                // filters ties on the boundary key
+                pageSelection.append(sortKey).append(" >= ? AND (")
+                        .append(sortKey).append(" > ? OR ")
+                        .append(PetEntry._ID).append(" > ?)");
+                args.add(afterKey);
+                args.add(afterKey);
+            }
+            args.add(afterId);
+        }
+        String orderBy = PetEntry._ID.equals(sortKey) ? PetEntry._ID : sortKey + ", " + PetEntry._ID;
+        return queryPets(false, projection, pageSelection.length() > zero ? pageSelection.toString() : null,
+                args.toArray(new String[args.size()]), orderBy, getLimit(uri), cancellationSignal);
+    }
+
+    // Reads go through the view so breed ids come back as names. With several shards each one
+    // runs the query and the store merges them, so orderBy must be plain columns.
+    private Cursor queryPets(boolean distinct, String[] projection, String selection, String[] selectionArgs, String orderBy, String limit, CancellationSignal cancellationSignal) {
+        return mStore.query(distinct, PetEntry.VIEW_NAME, projection, selection, selectionArgs, orderBy, limit, cancellationSignal);
+    }
+
+    // Only NOT NULL columns give a total order that a keyset can resume from
+    private boolean isPageSortKey(String column) {
+        return PetEntry._ID.equals(column)
+                || PetEntry.COLUMN_PET_NAME.equals(column)
+                || PetEntry.COLUMN_PET_WEIGHT.equals(column);
+    }
+
+    /**
+     * Matches every word of the search term as a prefix against the FTS index, then reads the
+     * matching rows from the pets table by _ID. Unless the caller supplies a sort order, pets
+     * whose name starts with the first word rank ahead of breed-only matches; with several shards
+     * that ranking can't be merged, so they are ordered by name alone.
+     */
+    private Cursor searchPets(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder, CancellationSignal cancellationSignal) {
+        String[] terms = uri.getLastPathSegment().trim().split("[^\\p{L}\\p{N}]+");
+        StringBuilder matchBuilder = new StringBuilder();
+        for (String term : terms) {
+            if (!TextUtils.isEmpty(term)) {
+                if (matchBuilder.length() > zero) {
+                    matchBuilder.append(' ');
+                }
+                matchBuilder.append(term).append('*');
+            }
+        }
+        if (matchBuilder.length() == zero) {
+            return new MatrixCursor(projection != null ? projection : PetEntry.PET_COLUMN_LIST);
+        }
+        List<String> args = new ArrayList<>();
+        args.add(matchBuilder.toString());
+        String searchSelection = PetEntry._ID + " IN (SELECT docid FROM " + PetEntry.FTS_TABLE_NAME
+                + " WHERE " + PetEntry.FTS_TABLE_NAME + " MATCH ?)";
+        if (!TextUtils.isEmpty(selection)) {
+            searchSelection += " AND (" + selection + ")";
+            if (selectionArgs != null) {
+                args.addAll(Arrays.asList(selectionArgs));
+            }
+        }
+        if (TextUtils.isEmpty(sortOrder) && mStore.isSharded()) {
+            sortOrder = PetEntry.COLUMN_PET_NAME + ", " + PetEntry._ID;
+        } else if (TextUtils.isEmpty(sortOrder)) {
+            // Bound after the WHERE arguments since ORDER BY follows WHERE in the statement
+            sortOrder = "CASE WHEN " + PetEntry.COLUMN_PET_NAME + " LIKE ? THEN 0 ELSE 1 END, " + PetEntry.COLUMN_PET_NAME;
+            args.add(matchBuilder.substring(zero, matchBuilder.indexOf("*")) + "%");
+        }
+        return queryPets(false, projection, searchSelection, args.toArray(new String[args.size()]),
+                sortOrder, getLimit(uri), cancellationSignal);
+    }
+
+    /**
+     * Returns the latest change to each pet changed after {@code since}, with the pet's current
+     * values, or a single {@link PetChangeEntry#OPERATION_RESET} row if some of those changes
+     * have been pruned or {@code since} is ahead of this database. Reads a range of the changelog
+     * and looks each changed pet up by _ID, so the cost follows the number of changes rather than
+     * the number of pets.
+     */
+    private Cursor queryChanges(SQLiteDatabase db, long since, String[] projection, String limit) {
+        String[] columns = projection != null ? projection : PetChangeEntry.CHANGE_COLUMN_LIST;
+        if (since <= getChangeSequence(db)) {
+            StringBuilder sql = new StringBuilder();
+            if (projection != null) {
+                sql.append("SELECT ").append(TextUtils.join(", ", projection)).append(" FROM (").append(SQL_CHANGES_SINCE).append(')');
+            } else {
+                sql.append(SQL_CHANGES_SINCE);
+            }
+            if (limit != null) {
+                sql.append(" LIMIT ").append(limit);
+            }
+            Cursor cursor = db.rawQuery(sql.toString(), new String[]{String.valueOf(since)});
+            // Pruning only ever raises the oldest sequence kept, so if nothing after since is
+            // missing once the rows have been read, nothing was missing while they were read
+            cursor.getCount();
+            long oldest = DatabaseUtils.longForQuery(db, SQL_OLDEST_CHANGE, null);
+            if (since >= getChangeSequence(db) || (oldest != zero && oldest <= since + 1)) {
+                return cursor;
+            }
+            cursor.close();
+        }
+        MatrixCursor reset = new MatrixCursor(columns, 1);
+        Object[] row = new Object[columns.length];
+        for (int i = zero; i < columns.length; i++) {
+            if (PetChangeEntry.COLUMN_SEQUENCE.equals(columns[i])) {
+                row[i] = getChangeSequence(db);
+            } else if (PetChangeEntry.COLUMN_OPERATION.equals(columns[i])) {
+                row[i] = PetChangeEntry.OPERATION_RESET;
+            }
+        }
+        reset.addRow(row);
+        return reset;
+    }
+
+    private long getChangeSequence(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, SQL_CHANGE_SEQUENCE, null);
+    }
+
+    /**
+     * Counts {@code rows} changed pets towards the next prune of the changelog, and prunes it back
+     * to the newest {@link PetChangeEntry#MAX_RETAINED_CHANGES} entries once enough have built up.
+     * Callers are inside the transaction that changed the rows, so the prune commits with them.
+     * It runs once per {@link #PRUNE_INTERVAL} rows, so it compiles its statement each time rather
+     * than taking the statement cache monitor.
+     */
+    private void recordChanges(int shard, SQLiteDatabase db, int rows) {
+        if (rows <= zero || mChangesSincePrune.addAndGet(shard, rows) < PRUNE_INTERVAL) {
+            return;
+        }
+        mChangesSincePrune.set(shard, zero);
+        db.execSQL(SQL_PRUNE_CHANGES);
+    }
+
+    private String getLimit(Uri uri) {
+        String limit = uri.getQueryParameter(PetContract.QUERY_PARAM_LIMIT);
+        if (TextUtils.isEmpty(limit)) {
+            return null;
+        }
+        try {
+            return String.valueOf(Integer.parseInt(limit));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_invalid_uri) + " " + uri, e);
+        }
+    }
+
+    // For URIs served from a single database's tables, which have no merged form across shards
+    private void checkUnsharded(Uri uri) {
+        if (mStore.isSharded()) {
+            throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_invalid_uri) + " " + uri);
+        }
+    }
+
     @Nullable
     @Override
     public Uri insert(@NonNull Uri uri, @Nullable ContentValues contentValues) {
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return insertPet(uri, contentValues);
-            default:
-                throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_insertion_not_supported) + uri);
+        long startTime = mMetrics.begin(PetMetrics.INSERT, match);
+        Uri newUri = null;
+        try {
+            switch (match) {
+                case PETS:
+                    newUri = insertPet(uri, contentValues);
+                    return newUri;
+                default:
+                    throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_insertion_not_supported) + uri);
+            }
+        } finally {
+            boolean failed = newUri == null || ContentUris.parseId(newUri) == BAD_ID;
+            mMetrics.end(PetMetrics.INSERT, match, startTime, failed ? zero : 1, failed);
         }
     }
 
     private Uri insertPet(Uri uri, ContentValues values) {
         int badID = -1;
-        SQLiteDatabase db = DBHelper.getWritableDatabase();
-        ContentValues contentValues = new ContentValues();
-        String name = values.getAsString(PetEntry.COLUMN_PET_NAME);
-        String breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
-        int gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
-        int weight = values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT);
-        if (name == null || TextUtils.isEmpty(name)) {
+        validatePet(values);
+        int shard = mStore.nextInsertShard();
+        SQLiteDatabase db = mStore.getHelper(shard).getWritableDatabase();
+        PetStatementCache cache = mStore.getStatementCache(shard);
+        long newRowID;
+        // The connection before the cache monitor, as on every write path; see PetStatementCache
+        db.beginTransactionNonExclusive();
+        try {
+            synchronized (cache) {
+                internBreed(shard, db, values.getAsString(PetEntry.COLUMN_PET_BREED));
+                SQLiteStatement statement = acquireStatement(shard, db, STATEMENT_INSERT);
+                if (statement == null) {
+                    statement = cache.store(db, STATEMENT_INSERT, SQL_INSERT_PET);
+                }
+                bindPet(statement, values);
+                newRowID = statement.executeInsert();
+            }
+            if (newRowID != badID) {
+                recordChanges(shard, db, 1);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // Callers own user feedback; this may be running on any binder or worker thread
+        if (newRowID != badID) {
+            mNotifier.notifyItemChange(newRowID);
+        }
+        // Once we know the ID of the new row in the table,
+        // return the new URI with the ID appended to the end of it
+        return ContentUris.withAppendedId(uri, newRowID);
+    }
+
+    @Override
+    public int bulkInsert(@NonNull Uri uri, @NonNull ContentValues[] valuesArray) {
+        final int match = sUriMatcher.match(uri);
+        long startTime = mMetrics.begin(PetMetrics.BULK_INSERT, match);
+        int insertedRows = BAD_ID;
+        try {
+            switch (match) {
+                case PETS:
+                    insertedRows = bulkInsertPets(uri, valuesArray);
+                    return insertedRows;
+                default:
+                    throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_insertion_not_supported) + uri);
+            }
+        } finally {
+            mMetrics.end(PetMetrics.BULK_INSERT, match, startTime, insertedRows, insertedRows == BAD_ID);
+        }
+    }
+
+    /**
+     * Inserts every row in a single transaction using the cached INSERT statement, so the whole
+     * batch costs one journal commit and one change notification instead of one per row.
+     * Any invalid row rolls back the entire batch. The batch goes to a single shard so that it
+     * stays one transaction; concurrent batches land on different shards. A URI from
+     * {@link ImportProgressEntry#buildCheckpointUri} also saves the import's checkpoint in that
+     * transaction, even when there are no rows.
+     */
+    private int bulkInsertPets(Uri uri, ContentValues[] valuesArray) {
+        String importId = uri.getQueryParameter(PetContract.QUERY_PARAM_IMPORT_ID);
+        if (valuesArray.length == zero && importId == null) {
+            return zero;
+        }
+        long startTime = System.nanoTime();
+        int insertedRows = zero;
+        int shard = mStore.nextInsertShard();
+        SQLiteDatabase db = mStore.getHelper(shard).getWritableDatabase();
+        PetStatementCache cache = mStore.getStatementCache(shard);
+        db.beginTransactionNonExclusive();
+        try {
+            synchronized (cache) {
+                SQLiteStatement internStatement = acquireStatement(shard, db, STATEMENT_INTERN_BREED);
+                if (internStatement == null) {
+                    internStatement = cache.store(db, STATEMENT_INTERN_BREED, SQL_INTERN_BREED);
+                }
+                SQLiteStatement statement = acquireStatement(shard, db, STATEMENT_INSERT);
+                if (statement == null) {
+                    statement = cache.store(db, STATEMENT_INSERT, SQL_INSERT_PET);
+                }
+                for (ContentValues values : valuesArray) {
+                    validatePet(values);
+                    String breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
+                    if (breed != null) {
+                        internStatement.bindString(1, breed);
+                        internStatement.executeInsert();
+                    }
+                    bindPet(statement, values);
+                    if (statement.executeInsert() != BAD_ID) {
+                        insertedRows++;
+                    }
+                }
+            }
+            recordChanges(shard, db, insertedRows);
+            if (importId != null) {
+                saveImportProgress(db, importId, uri.getQueryParameter(PetContract.QUERY_PARAM_IMPORT_RECORDS));
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        // Rows and time per call are in the bulk_insert metrics; this is for watching one import
+        if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+            long elapsedNanos = Math.max(System.nanoTime() - startTime, 1);
+            Log.d(LOG_TAG, "Bulk inserted " + insertedRows + " pets in " + (elapsedNanos / 1000000) + " ms ("
+                    + insertedRows * 1000000000L / elapsedNanos + " rows/sec)");
+        }
+        if (insertedRows > zero) {
+            notifyChange(uri);
+        }
+        return insertedRows;
+    }
+
+    private void saveImportProgress(SQLiteDatabase db, String importId, String records) {
+        long count;
+        try {
+            count = Long.parseLong(records);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + PetContract.QUERY_PARAM_IMPORT_RECORDS + ": " + records);
+        }
+        db.execSQL(SQL_SAVE_IMPORT_PROGRESS, new Object[] {importId, count});
+    }
+
+    /**
+     * The furthest checkpoint saved for {@code importId}. Each chunk's checkpoint lands on the
+     * shard its rows went to, so the newest one is the largest across shards.
+     */
+    private long getImportProgress(String importId) {
+        long records = zero;
+        for (int shard = zero; shard < mStore.getShardCount(); shard++) {
+            records = Math.max(records, DatabaseUtils.longForQuery(mStore.getHelper(shard).getReadableDatabase(),
+                    SQL_IMPORT_PROGRESS, new String[] {importId}));
+        }
+        return records;
+    }
+
+    private void validatePet(ContentValues values) {
+        if (!PetEntry.isValidName(values.getAsString(PetEntry.COLUMN_PET_NAME))) {
             throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_exception_invalid_name));
         }
-        if (!PetEntry.isValidGender(gender)) {
+        Integer gender = values.getAsInteger(PetEntry.COLUMN_PET_GENDER);
+        if (gender == null || !PetEntry.isValidGender(gender)) {
             throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_exception_invalid_gender));
         }
-        if (weight <= 0) {
+        if (!PetEntry.isValidWeight(values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT))) {
             throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_exception_invalid_weight));
         }
-        contentValues.put(PetEntry.COLUMN_PET_NAME, name);
-        contentValues.put(PetEntry.COLUMN_PET_BREED, breed);
-        contentValues.put(PetEntry.COLUMN_PET_GENDER, gender);
-        contentValues.put(PetEntry.COLUMN_PET_WEIGHT, weight);
+    }
 
-        long newRowID = db.insert(PetEntry.TABLE_NAME, null, contentValues);
-        if (newRowID != badID) {
-            Toast.makeText(getContext(), getContext().getResources().getString(R.string.update_pet_saved), Toast.LENGTH_SHORT).show();
-            getContext().getContentResolver().notifyChange(uri, null);
+    /**
+     * Adds {@code breed} to the breed dictionary unless it is already there, so statements using
+     * {@link #SQL_BREED_ID} can resolve it. Names are never removed; the dictionary only holds one
+     * short row per distinct breed ever written. Callers are inside a transaction on {@code db}
+     * and hold the monitor of the shard's statement cache.
+     */
+    private void internBreed(int shard, SQLiteDatabase db, String breed) {
+        if (breed == null) {
+            return;
+        }
+        PetStatementCache cache = mStore.getStatementCache(shard);
+        SQLiteStatement statement = acquireStatement(shard, db, STATEMENT_INTERN_BREED);
+        if (statement == null) {
+            statement = cache.store(db, STATEMENT_INTERN_BREED, SQL_INTERN_BREED);
+        }
+        statement.bindString(1, breed);
+        statement.executeInsert();
+    }
+
+    // Binds SQL_INSERT_PET; the breed is bound by name and resolved to its id by the statement
+    private void bindPet(SQLiteStatement statement, ContentValues values) {
+        statement.clearBindings();
+        statement.bindString(1, values.getAsString(PetEntry.COLUMN_PET_NAME));
+        String breed = values.getAsString(PetEntry.COLUMN_PET_BREED);
+        if (breed == null) {
+            statement.bindNull(2);
         } else {
-            Toast.makeText(getContext(), getContext().getResources().getString(R.string.update_error_saving_pet), Toast.LENGTH_SHORT).show();
+            statement.bindString(2, breed);
         }
-        // Once we know the ID of the new row in the table,
-        // return the new URI with the ID appended to the end of it
-        return ContentUris.withAppendedId(uri, newRowID);
+        statement.bindLong(3, values.getAsInteger(PetEntry.COLUMN_PET_GENDER));
+        statement.bindLong(4, values.getAsInteger(PetEntry.COLUMN_PET_WEIGHT));
+    }
+
+    /**
+     * Applies every operation inside one database transaction. Yield points are taken only at
+     * operations built with {@link ContentProviderOperation.Builder#withYieldAllowed(boolean)},
+     * so long batches let waiting readers in without splitting the caller's atomic groups.
+     * Change notifications are held back by the dispatcher until the transaction has ended, then
+     * sent as one deduplicated set. With several shards, transactions are held only on the shards
+     * the operations write to, and all of the batch's inserts go to one of them. Yield points are
+     * only taken when a single shard is involved.
+     * <p>
+     * A batch spanning several shards is atomic per shard only: their transactions commit one
+     * after another, and if one shard's commit fails the shards committed before it keep the
+     * batch's writes. Callers needing all or nothing should keep a batch to one shard: only
+     * inserts, or only writes by _ID to pets on the same shard.
+     */
+    @NonNull
+    @Override
+    public ContentProviderResult[] applyBatch(@NonNull ArrayList<ContentProviderOperation> operations) throws OperationApplicationException {
+        final int numOperations = operations.size();
+        ContentProviderResult[] results = new ContentProviderResult[numOperations];
+        boolean[] shards = getBatchShards(operations);
+        SQLiteDatabase yieldDb = null;
+        int lockedShards = zero;
+        for (int shard = zero; shard < shards.length; shard++) {
+            if (shards[shard]) {
+                lockedShards++;
+                yieldDb = mStore.getHelper(shard).getWritableDatabase();
+            }
+        }
+        if (lockedShards != 1) {
+            // Yielding one of several shards' transactions would not let the others' readers in
+            yieldDb = null;
+        }
+        boolean successful = false;
+        mStore.beginTransactions(shards);
+        // Per thread, so only this batch's notifications wait for the commit
+        mNotifier.suspend();
+        try {
+            for (int i = zero; i < numOperations; i++) {
+                ContentProviderOperation operation = operations.get(i);
+                if (i > zero && operation.isYieldAllowed() && yieldDb != null) {
+                    yieldDb.yieldIfContendedSafely();
+                }
+                // apply() resolves back-references against the results of earlier operations
+                results[i] = operation.apply(this, results, i);
+            }
+            successful = true;
+        } finally {
+            mStore.endTransactions(shards, successful);
+            // Per-operation invalidations ran before commit, when readers could still cache old rows
+            mRowCache.invalidateAll();
+            mNotifier.resume();
+        }
+        return results;
+    }
+
+    /**
+     * Flags the shards {@code operations} write to: the shard of each _ID they name, one shard for
+     * all their inserts, and every shard for a selection. Inserts can only be told apart from
+     * other writes to the pets URI from API 23; before that those count as selections.
+     */
+    private boolean[] getBatchShards(List<ContentProviderOperation> operations) {
+        boolean[] shards = new boolean[mStore.getShardCount()];
+        if (!mStore.isSharded()) {
+            shards[zero] = true;
+            return shards;
+        }
+        int insertShard = BAD_ID;
+        for (ContentProviderOperation operation : operations) {
+            switch (sUriMatcher.match(operation.getUri())) {
+                case PETS_ID:
+                    int shard = mStore.getShard(ContentUris.parseId(operation.getUri()));
+                    if (shard != BAD_ID) {
+                        shards[shard] = true;
+                    }
+                    break;
+                case PETS:
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M && operation.isInsert()) {
+                        if (insertShard == BAD_ID) {
+                            insertShard = mStore.nextInsertShard();
+                            shards[insertShard] = true;
+                        }
+                    } else if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M || !operation.isReadOperation()) {
+                        Arrays.fill(shards, true);
+                    }
+                    break;
+                default:
+                    // Fails when applied; nothing to lock for it
+                    break;
+            }
+        }
+        return shards;
+    }
+
+    private void notifyChange(Uri uri) {
+        mNotifier.notifyChange(uri);
     }
 
     private String checkGender(int value) {
@@ -137,69 +784,359 @@ public class PetProvider extends ContentProvider {
     @Override
     public int delete(@NonNull Uri uri, @Nullable String selection, @Nullable String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                int deletedRows = deletePet(uri, selection, selectionArgs);
-                return deletedRows;
-            case PETS_ID:
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return deletePet(uri, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_deletion_not_supported) + " " + uri);
+        long startTime = mMetrics.begin(PetMetrics.DELETE, match);
+        int deletedRows = BAD_ID;
+        try {
+            switch (match) {
+                case PETS:
+                    deletedRows = deletePet(uri, selection, selectionArgs);
+                    return deletedRows;
+                case PETS_ID:
+                    deletedRows = deletePetById(uri, ContentUris.parseId(uri));
+                    return deletedRows;
+                default:
+                    throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_deletion_not_supported) + " " + uri);
+            }
+        } finally {
+            mMetrics.end(PetMetrics.DELETE, match, startTime, deletedRows, deletedRows == BAD_ID);
         }
     }
 
+    /**
+     * Deletes every pet matching the selection, from every shard under one set of transactions
+     * taken by {@link PetShardedStore#beginTransactions}, so a failure on any shard rolls all of
+     * them back.
+     */
     private int deletePet(Uri uri, String selection, String[] selectionArgs) {
-        SQLiteDatabase db = DBHelper.getWritableDatabase();
-        int deletedRows = db.delete(PetEntry.TABLE_NAME, selection, selectionArgs);
-        getContext().getContentResolver().notifyChange(uri, null);
+        PetCriteria.checkIndexUse(mStore.getHelper(zero).getReadableDatabase(), selection, selectionArgs);
+        int deletedRows = zero;
+        boolean successful = false;
+        mStore.beginTransactions(null);
+        try {
+            for (int shard = zero; shard < mStore.getShardCount(); shard++) {
+                SQLiteDatabase db = mStore.getHelper(shard).getWritableDatabase();
+                int shardRows = db.delete(PetEntry.TABLE_NAME, toTableSelection(selection), selectionArgs);
+                recordChanges(shard, db, shardRows);
+                deletedRows += shardRows;
+            }
+            successful = true;
+        } finally {
+            mStore.endTransactions(null, successful);
+        }
+        if (deletedRows > zero) {
+            mRowCache.invalidateAll();
+            notifyChange(uri);
+        }
+        return deletedRows;
+    }
+
+    private int deletePetById(Uri uri, long id) {
+        int shard = mStore.getShard(id);
+        if (shard == BAD_ID) {
+            return zero;
+        }
+        SQLiteDatabase db = mStore.getHelper(shard).getWritableDatabase();
+        PetStatementCache cache = mStore.getStatementCache(shard);
+        int deletedRows;
+        db.beginTransactionNonExclusive();
+        try {
+            synchronized (cache) {
+                SQLiteStatement statement = acquireStatement(shard, db, STATEMENT_DELETE_BY_ID);
+                if (statement == null) {
+                    statement = cache.store(db, STATEMENT_DELETE_BY_ID,
+                            "DELETE FROM " + PetEntry.TABLE_NAME + " WHERE " + PetEntry._ID + " = ?");
+                }
+                statement.bindLong(1, id);
+                deletedRows = statement.executeUpdateDelete();
+            }
+            recordChanges(shard, db, deletedRows);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (deletedRows > zero) {
+            mRowCache.invalidate(id);
+            notifyChange(uri);
+        }
         return deletedRows;
     }
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case PETS:
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            case PETS_ID:
-                selection = PetEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                return updatePet(uri, contentValues, selection, selectionArgs);
-            default:
-                throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_update_not_supported) + " " + uri);
+        long startTime = mMetrics.begin(PetMetrics.UPDATE, match);
+        int updatedRows = BAD_ID;
+        try {
+            switch (match) {
+                case PETS:
+                    updatedRows = updatePet(uri, contentValues, selection, selectionArgs);
+                    return updatedRows;
+                case PETS_ID:
+                    updatedRows = updatePetById(uri, contentValues, ContentUris.parseId(uri));
+                    return updatedRows;
+                default:
+                    throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_argument_exception_update_not_supported) + " " + uri);
+            }
+        } finally {
+            mMetrics.end(PetMetrics.UPDATE, match, startTime, updatedRows, updatedRows == BAD_ID);
         }
     }
 
+    /**
+     * Updates every pet matching the selection. Rows already holding the new values are left
+     * alone, and nothing is invalidated or notified unless a row actually changed. As with
+     * {@link #deletePet}, every shard is written under one set of transactions, all rolled back
+     * if any shard fails.
+     */
     private int updatePet(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        int newRowID = BAD_ID;
-        ContentValues newValues = new ContentValues();
         if (values.size() == zero) {
-            Log.i("TEST", "Values equal 0");
             return zero;
-        } else {
-            SQLiteDatabase db = DBHelper.getWritableDatabase();
-            if (checkForValidKey(values, PetEntry.COLUMN_PET_NAME)) {
-                putValueToNewContentValues(PetEntry.COLUMN_PET_NAME, values, newValues);
+        }
+        Object[] attributes = new Object[PetEntry.PET_ATTRIBUTE_LIST.length];
+        int columnMask = readAttributes(values, attributes);
+        if (columnMask == zero) {
+            return zero;
+        }
+        String sql = buildUpdateSql(columnMask, toTableSelection(selection));
+        int updatedRows = zero;
+        boolean successful = false;
+        mStore.beginTransactions(null);
+        try {
+            for (int shard = zero; shard < mStore.getShardCount(); shard++) {
+                SQLiteDatabase db = mStore.getHelper(shard).getWritableDatabase();
+                PetStatementCache cache = mStore.getStatementCache(shard);
+                synchronized (cache) {
+                    internBreed(shard, db, (String) attributes[1]);
+                }
+                // The selection varies per caller, so this statement isn't worth caching
+                SQLiteStatement statement = db.compileStatement(sql);
+                int shardRows;
+                try {
+                    int bindIndex = bindAttributes(statement, 1, columnMask, attributes);
+                    if (!TextUtils.isEmpty(selection) && selectionArgs != null) {
+                        for (String arg : selectionArgs) {
+                            PetStatementCache.bindValue(statement, bindIndex++, arg);
+                        }
+                    }
+                    bindAttributes(statement, bindIndex, columnMask, attributes);
+                    shardRows = statement.executeUpdateDelete();
+                } finally {
+                    statement.close();
+                }
+                recordChanges(shard, db, shardRows);
+                updatedRows += shardRows;
             }
-            if (checkForValidKey(values, PetEntry.COLUMN_PET_BREED)) {
-                putValueToNewContentValues(PetEntry.COLUMN_PET_BREED, values, newValues);
+            successful = true;
+        } finally {
+            mStore.endTransactions(null, successful);
+        }
+        if (updatedRows > zero) {
+            mRowCache.invalidateAll();
+            notifyChange(uri);
+        }
+        return updatedRows;
+    }
+
+    /**
+     * Updates one pet through a cached statement for the set of columns being written. As with
+     * {@link #updatePet}, a pet that already holds the new values is not written or notified.
+     */
+    private int updatePetById(Uri uri, ContentValues values, long id) {
+        if (values.size() == zero) {
+            return zero;
+        }
+        Object[] attributes = new Object[PetEntry.PET_ATTRIBUTE_LIST.length];
+        int columnMask = readAttributes(values, attributes);
+        if (columnMask == zero) {
+            return zero;
+        }
+        int shard = mStore.getShard(id);
+        if (shard == BAD_ID) {
+            return zero;
+        }
+        SQLiteDatabase db = mStore.getHelper(shard).getWritableDatabase();
+        PetStatementCache cache = mStore.getStatementCache(shard);
+        int updatedRows;
+        db.beginTransactionNonExclusive();
+        try {
+            synchronized (cache) {
+                internBreed(shard, db, (String) attributes[1]);
+                String key = STATEMENT_UPDATE_BY_ID + columnMask;
+                SQLiteStatement statement = acquireStatement(shard, db, key);
+                if (statement == null) {
+                    statement = cache.store(db, key, buildUpdateSql(columnMask, PetEntry._ID + " = ?"));
+                }
+                int bindIndex = bindAttributes(statement, 1, columnMask, attributes);
+                statement.bindLong(bindIndex++, id);
+                bindAttributes(statement, bindIndex, columnMask, attributes);
+                updatedRows = statement.executeUpdateDelete();
             }
-            if (checkForValidKey(values, PetEntry.COLUMN_PET_GENDER)) {
-                putValueToNewContentValues(PetEntry.COLUMN_PET_GENDER, values, newValues);
+            recordChanges(shard, db, updatedRows);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        if (updatedRows > zero) {
+            mRowCache.invalidate(id);
+            notifyChange(uri);
+        }
+        return updatedRows;
+    }
+
+    /**
+     * Validates the attribute columns present in {@code values} and stores each one, converted to
+     * its column's type from {@link PetEntry#PET_ATTRIBUTE_TYPES}, at its PET_ATTRIBUTE_LIST
+     * position in {@code attributes}. Returns a bit mask of the columns found. A null value is
+     * written as NULL to the columns marked in {@link PetEntry#PET_ATTRIBUTE_NULLABLE} and
+     * rejected for the others; empty values are skipped as before.
+     */
+    private int readAttributes(ContentValues values, Object[] attributes) {
+        if (!checkContentValues(values, PetEntry.PET_ATTRIBUTE_LIST)) {
+            throw new IllegalArgumentException(getContext().getResources().getString(R.string.error_input_provide_attributes));
+        }
+        String[] columns = PetEntry.PET_ATTRIBUTE_LIST;
+        int columnMask = zero;
+        for (int i = zero; i < columns.length; i++) {
+            if (!values.containsKey(columns[i])) {
+                continue;
             }
-            if (checkForValidKey(values, PetEntry.COLUMN_PET_WEIGHT)) {
-                putValueToNewContentValues(PetEntry.COLUMN_PET_WEIGHT, values, newValues);
+            Object value = values.get(columns[i]);
+            if (value == null) {
+                // An explicit NULL clears a nullable column; the other columns can't hold one
+                if (!PetEntry.PET_ATTRIBUTE_NULLABLE[i]) {
+                    throw new IllegalArgumentException(getContext().getResources().getString(getInvalidMessage(columns[i])));
+                }
+                columnMask |= 1 << i;
+                continue;
             }
-            if (checkContentValues(values, PetEntry.PET_ATTRIBUTE_LIST)) {      // attribute input provided
-                newRowID = db.update(PetEntry.TABLE_NAME, newValues, selection, selectionArgs);
-                getContext().getContentResolver().notifyChange(uri, null);
+            if (!checkForValidKey(values, columns[i])) {
+                continue;
+            }
+            if (PetEntry.PET_ATTRIBUTE_TYPES[i] == Cursor.FIELD_TYPE_INTEGER) {
+                value = toLong(columns[i], value);
             } else {
-                throw new IllegalArgumentException(getContext().getResources().getString(R.string.error_input_provide_attributes));
+                value = value.toString();
             }
+            attributes[i] = value;
+            columnMask |= 1 << i;
+        }
+        if (attributes[0] != null && !PetEntry.isValidName((String) attributes[0])) {
+            throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_exception_invalid_name));
+        }
+        if (attributes[2] != null && !PetEntry.isValidGender(((Long) attributes[2]).intValue())) {
+            throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_exception_invalid_gender));
+        }
+        if (attributes[3] != null && !PetEntry.isValidWeight(((Long) attributes[3]).intValue())) {
+            throw new IllegalArgumentException(getContext().getResources().getString(R.string.illegal_exception_invalid_weight));
+        }
+        return columnMask;
+    }
+
+    private Long toLong(String column, Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        }
+        try {
+            return Long.parseLong(value.toString().trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(getContext().getResources().getString(getInvalidMessage(column)), e);
         }
-        return newRowID;
+    }
+
+    private int getInvalidMessage(String column) {
+        if (PetEntry.COLUMN_PET_NAME.equals(column)) {
+            return R.string.illegal_exception_invalid_name;
+        }
+        return PetEntry.COLUMN_PET_GENDER.equals(column)
+                ? R.string.illegal_exception_invalid_gender
+                : R.string.illegal_exception_invalid_weight;
+    }
+
+    // Binds the masked attributes in column order from bindIndex; returns the next free index
+    private int bindAttributes(SQLiteStatement statement, int bindIndex, int columnMask, Object[] attributes) {
+        for (int i = zero; i < attributes.length; i++) {
+            if ((columnMask & (1 << i)) != zero) {
+                PetStatementCache.bindValue(statement, bindIndex++, attributes[i]);
+            }
+        }
+        return bindIndex;
+    }
+
+    /**
+     * UPDATE of the masked columns, limited to rows matching {@code selection} where at least one
+     * of those columns differs from its new value. IS NOT treats NULLs as comparable values. The
+     * new values are bound twice: once for SET, and again after the selection's arguments for the
+     * guard. {@code selection} must be in terms of the pets table's own columns.
+     */
+    private String buildUpdateSql(int columnMask, String selection) {
+        StringBuilder set = new StringBuilder();
+        StringBuilder guard = new StringBuilder();
+        for (int i = zero; i < ATTRIBUTE_STORAGE_COLUMNS.length; i++) {
+            if ((columnMask & (1 << i)) != zero) {
+                if (set.length() > zero) {
+                    set.append(", ");
+                    guard.append(" OR ");
+                }
+                set.append(ATTRIBUTE_STORAGE_COLUMNS[i]).append(" = ").append(ATTRIBUTE_STORAGE_VALUES[i]);
+                guard.append(ATTRIBUTE_STORAGE_COLUMNS[i]).append(" IS NOT ").append(ATTRIBUTE_STORAGE_VALUES[i]);
+            }
+        }
+        StringBuilder builder = new StringBuilder("UPDATE ").append(PetEntry.TABLE_NAME)
+                .append(" SET ").append(set).append(" WHERE ");
+        if (!TextUtils.isEmpty(selection)) {
+            builder.append('(').append(selection).append(") AND ");
+        }
+        return builder.append('(').append(guard).append(')').toString();
+    }
+
+    /**
+     * Rewrites a caller's selection, which is written against the contract's columns, into one the
+     * pets table itself can evaluate, by matching _IDs through the view. The view resolves the
+     * breed name, and SQLite still drives the subquery from whichever index fits the selection.
+     */
+    private String toTableSelection(String selection) {
+        if (TextUtils.isEmpty(selection)) {
+            return selection;
+        }
+        return PetEntry._ID + " IN (SELECT " + PetEntry._ID + " FROM " + PetEntry.VIEW_NAME + " WHERE " + selection + ")";
+    }
+
+    // Callers must already be in a transaction on db, then hold the shard's statement cache
+    // monitor until they are done with the statement
+    private SQLiteStatement acquireStatement(int shard, SQLiteDatabase db, String key) {
+        return mStore.getStatementCache(shard).acquire(db, mStore.getHelper(shard).getSchemaGeneration(), key);
+    }
+
+    /**
+     * Hit, miss and eviction counters for single-pet reads.
+     */
+    public PetRowCache getRowCache() {
+        return mRowCache;
+    }
+
+    /**
+     * Statement reuse counters for one shard's insert and by-_ID write paths.
+     */
+    public PetStatementCache getStatementCache(int shard) {
+        return mStore.getStatementCache(shard);
+    }
+
+    /**
+     * One shard's database helper, for harnesses that change how the database is opened (such as
+     * its journal mode) before the provider first uses it.
+     */
+    public PetDBHelper getDBHelper(int shard) {
+        return mStore.getHelper(shard);
+    }
+
+    /**
+     * Releases cached statements and closes every shard's database. Never called by the platform;
+     * used by harnesses that run several providers in one process.
+     */
+    @Override
+    public void shutdown() {
+        mRowCache.invalidateAll();
+        mStore.close();
     }
 
     private boolean checkForValidKey(ContentValues values, String key) {
@@ -209,18 +1146,6 @@ public class PetProvider extends ContentProvider {
         return false;
     }
 
-    private void putValueToNewContentValues(String key, ContentValues oldValues, ContentValues newValues) {
-        String value = null;
-        if (oldValues.get(key) instanceof  String) {                    // is a String
-            value = oldValues.getAsString(key);
-        } else if (oldValues.get(key) instanceof Integer) {             // is an Integer
-            value = String.valueOf(oldValues.getAsInteger(key));
-        } else if (oldValues.get(key) instanceof Double) {              // is a Double... for some reason
-            value = String.valueOf(oldValues.getAsDouble(key));
-        }
-        newValues.put(key, value);
-    }
-
     private boolean checkContentValues(ContentValues values, String[] list) {
         int listSize = list.length;
         int keyAmount = 0;
@@ -235,6 +1160,119 @@ public class PetProvider extends ContentProvider {
         return true;
     }
 
+    /**
+     * {@link PetContract#METHOD_VERIFY_STATS} recounts the summary tables and returns whether they
+     * match, along with any mismatches. {@link PetContract#METHOD_REBUILD_STATS} replaces them with
+     * a fresh recount. {@link PetContract#METHOD_GET_CHANGE_SEQUENCE} returns the newest change
+     * sequence number, or nothing when pets are sharded. {@link PetContract#METHOD_GET_IMPORT_CHECKPOINT}
+     * and {@link PetContract#METHOD_CLEAR_IMPORT_CHECKPOINT} read and drop the checkpoint of the
+     * import named by {@code arg}. {@link PetContract#METHOD_GET_METRICS} returns a {@link PetMetrics} snapshot
+     * plus the statement and row cache counters; {@link PetContract#METHOD_RESET_METRICS} zeroes
+     * the operation counters.
+     */
+    @Nullable
+    @Override
+    public Bundle call(@NonNull String method, @Nullable String arg, @Nullable Bundle extras) {
+        Bundle result = new Bundle();
+        switch (method) {
+            case PetContract.METHOD_VERIFY_STATS:
+                ArrayList<String> mismatches = new ArrayList<>();
+                for (int shard = zero; shard < mStore.getShardCount(); shard++) {
+                    for (String mismatch : PetStatistics.verify(mStore.getHelper(shard).getReadableDatabase())) {
+                        mismatches.add(mStore.isSharded() ? PetShardedStore.getDatabaseName(shard) + ": " + mismatch : mismatch);
+                    }
+                }
+                result.putBoolean(PetContract.EXTRA_STATS_CONSISTENT, mismatches.isEmpty());
+                result.putStringArrayList(PetContract.EXTRA_STATS_MISMATCHES, mismatches);
+                return result;
+            case PetContract.METHOD_REBUILD_STATS:
+                for (int shard = zero; shard < mStore.getShardCount(); shard++) {
+                    PetStatistics.rebuild(mStore.getHelper(shard).getWritableDatabase());
+                }
+                notifyChange(PetEntry.CONTENT_URI);
+                return result;
+            case PetContract.METHOD_GET_CHANGE_SEQUENCE:
+                // Shards number their changes separately, so there is no one sequence to follow;
+                // without it the catalog reloads on every change
+                if (!mStore.isSharded()) {
+                    result.putLong(PetContract.EXTRA_CHANGE_SEQUENCE, getChangeSequence(mStore.getHelper(zero).getReadableDatabase()));
+                }
+                return result;
+            case PetContract.METHOD_GET_IMPORT_CHECKPOINT:
+                result.putLong(PetContract.EXTRA_IMPORT_RECORDS, arg == null ? zero : getImportProgress(arg));
+                return result;
+            case PetContract.METHOD_CLEAR_IMPORT_CHECKPOINT:
+                if (arg != null) {
+                    for (int shard = zero; shard < mStore.getShardCount(); shard++) {
+                        mStore.getHelper(shard).getWritableDatabase().delete(ImportProgressEntry.TABLE_NAME,
+                                ImportProgressEntry.COLUMN_IMPORT_ID + " = ?", new String[] {arg});
+                    }
+                }
+                return result;
+            case PetContract.METHOD_GET_METRICS:
+                result.putBundle(PetContract.EXTRA_METRICS_OPERATIONS, mMetrics.snapshot());
+                // Summed over the shards' caches
+                long hits = zero;
+                long misses = zero;
+                long evictions = zero;
+                long size = zero;
+                for (int shard = zero; shard < mStore.getShardCount(); shard++) {
+                    PetStatementCache cache = mStore.getStatementCache(shard);
+                    hits += cache.getHitCount();
+                    misses += cache.getMissCount();
+                    evictions += cache.getEvictionCount();
+                    size += cache.size();
+                }
+                Bundle statementCache = new Bundle();
+                statementCache.putLong(PetMetrics.KEY_HITS, hits);
+                statementCache.putLong(PetMetrics.KEY_MISSES, misses);
+                statementCache.putLong(PetMetrics.KEY_EVICTIONS, evictions);
+                statementCache.putLong(PetMetrics.KEY_SIZE, size);
+                result.putBundle(PetContract.EXTRA_METRICS_STATEMENT_CACHE, statementCache);
+                Bundle rowCache = new Bundle();
+                rowCache.putLong(PetMetrics.KEY_HITS, mRowCache.getHitCount());
+                rowCache.putLong(PetMetrics.KEY_MISSES, mRowCache.getMissCount());
+                rowCache.putLong(PetMetrics.KEY_EVICTIONS, mRowCache.getEvictionCount());
+                rowCache.putLong(PetMetrics.KEY_SIZE, mRowCache.size());
+                result.putBundle(PetContract.EXTRA_METRICS_ROW_CACHE, rowCache);
+                return result;
+            case PetContract.METHOD_RESET_METRICS:
+                mMetrics.reset();
+                return result;
+            default:
+                return super.call(method, arg, extras);
+        }
+    }
+
+    @Override
+    public String[] getStreamTypes(@NonNull Uri uri, @NonNull String mimeTypeFilter) {
+        // The exporter reads a single database
+        if (sUriMatcher.match(uri) != PETS || mStore.isSharded()) {
+            return null;
+        }
+        List<String> types = new ArrayList<>();
+        for (String type : EXPORT_MIME_TYPES) {
+            if (ClipDescription.compareMimeTypes(type, mimeTypeFilter)) {
+                types.add(type);
+            }
+        }
+        return types.isEmpty() ? null : types.toArray(new String[types.size()]);
+    }
+
+    /**
+     * Streams the whole pets table as CSV or NDJSON, whichever first matches
+     * {@code mimeTypeFilter}. A background writer fills the returned pipe; see {@link PetExporter}.
+     */
+    @Override
+    public AssetFileDescriptor openTypedAssetFile(@NonNull Uri uri, @NonNull String mimeTypeFilter, Bundle opts) throws FileNotFoundException {
+        String[] types = getStreamTypes(uri, mimeTypeFilter);
+        if (types == null) {
+            return super.openTypedAssetFile(uri, mimeTypeFilter, opts);
+        }
+        ParcelFileDescriptor pipe = openPipeHelper(uri, types[0], opts, null, mExporter);
+        return new AssetFileDescriptor(pipe, 0, AssetFileDescriptor.UNKNOWN_LENGTH);
+    }
+
     @Override
     public String getType(Uri uri) {
         final int match = sUriMatcher.match(uri);
@@ -243,6 +1281,13 @@ public class PetProvider extends ContentProvider {
                 return PetEntry.CONTENT_DIR_TYPE;
             case PETS_ID:
                 return PetEntry.CONTENT_ITEM_TYPE;
+            case PETS_SEARCH:
+            case PETS_CHANGES:
+                return PetEntry.CONTENT_DIR_TYPE;
+            case STATS_GENDER:
+            case STATS_WEIGHT:
+            case STATS_BREEDS:
+                return PetEntry.CONTENT_DIR_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
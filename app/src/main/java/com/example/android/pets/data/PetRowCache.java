@@ -0,0 +1,138 @@
+package com.example.android.pets.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * In-process LRU cache of recently read pet rows, keyed by _ID and bounded by both entry count
+ * and an estimate of the bytes held. Rows are stored as values in
+ * {@link PetContract.PetEntry#PET_COLUMN_LIST} order.
+ * <p>
+ * Every invalidation bumps a generation counter. A reader takes the generation before querying
+ * SQLite and hands it back to {@link #put}, which drops the row if a write invalidated the cache
+ * in the meantime, so a slow read can never cache data older than a completed write.
+ */
+public class PetRowCache {
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final int DEFAULT_MAX_BYTES = 256 * 1024;
+    // Rough per-object costs for the size estimate
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+    private static final int VALUE_OVERHEAD_BYTES = 16;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+
+    private final int mMaxEntries;
+    private final int mMaxBytes;
+    private final LinkedHashMap<Long, Object[]> mRows = new LinkedHashMap<>(16, 0.75f, true);
+    private int mBytes = 0;
+    private long mGeneration = 0;
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mEvictions = 0;
+
+    public PetRowCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES);
+    }
+
+    public PetRowCache(int maxEntries, int maxBytes) {
+        mMaxEntries = maxEntries;
+        mMaxBytes = maxBytes;
+    }
+
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Returns the cached row values for {@code id}, or null on a miss. The array is shared and
+     * must not be modified.
+     */
+    public synchronized Object[] get(long id) {
+        Object[] row = mRows.get(id);
+        if (row == null) {
+            mMisses++;
+        } else {
+            mHits++;
+        }
+        return row;
+    }
+
+    /**
+     * Caches {@code row} unless the cache was invalidated after {@code generation} was read.
+     */
+    public synchronized void put(long id, Object[] row, long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        Object[] previous = mRows.put(id, row);
+        if (previous != null) {
+            mBytes -= sizeOf(previous);
+        }
+        mBytes += sizeOf(row);
+        trim();
+    }
+
+    public synchronized void invalidate(long id) {
+        mGeneration++;
+        Object[] previous = mRows.remove(id);
+        if (previous != null) {
+            mBytes -= sizeOf(previous);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        mGeneration++;
+        mRows.clear();
+        mBytes = 0;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Long, Object[]>> iterator = mRows.entrySet().iterator();
+        while ((mRows.size() > mMaxEntries || mBytes > mMaxBytes) && iterator.hasNext()) {
+            mBytes -= sizeOf(iterator.next().getValue());
+            iterator.remove();
+            mEvictions++;
+        }
+    }
+
+    private static int sizeOf(Object[] row) {
+        int size = ENTRY_OVERHEAD_BYTES;
+        for (Object value : row) {
+            if (value instanceof String) {
+                size += STRING_OVERHEAD_BYTES + 2 * ((String) value).length();
+            } else {
+                size += VALUE_OVERHEAD_BYTES;
+            }
+        }
+        return size;
+    }
+
+    public synchronized int size() {
+        return mRows.size();
+    }
+
+    public synchronized int sizeInBytes() {
+        return mBytes;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictionCount() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "PetRowCache{size=" + mRows.size()
+                + ", bytes=" + mBytes
+                + ", hits=" + mHits
+                + ", misses=" + mMisses
+                + ", evictions=" + mEvictions + "}";
+    }
+}
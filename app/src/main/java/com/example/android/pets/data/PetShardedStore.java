@@ -0,0 +1,430 @@
+package com.example.android.pets.data;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.text.TextUtils;
+
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The databases PetProvider keeps pets in. With one shard that is pets.db alone. With more, pets
+ * are spread over pets_shard_0.db, pets_shard_1.db and so on, each a complete copy of the schema
+ * with its own helper and statement cache, so writers to different shards share neither a file
+ * lock nor a statement cache monitor.
+ * <p>
+ * Shard i numbers its pets from i * {@link #SHARD_ID_RANGE} + 1, so the shard holding a pet
+ * follows from its _ID alone and adding shards later never moves existing pets. New pets go to
+ * each shard in turn. Whole-table reads run on every shard at once on a small pool and are merged
+ * back into one cursor.
+ */
+public class PetShardedStore {
+    private static final String LOG_TAG = PetShardedStore.class.getSimpleName();
+    // _IDs per shard; about a trillion each, with room for 2^23 shards below Long.MAX_VALUE
+    public static final long SHARD_ID_RANGE = 1L << 40;
+    private static final String SHARD_DATABASE_PREFIX = "pets_shard_";
+    private static final long QUERY_THREAD_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * One shard's part of a fanned-out read. Runs on a query pool thread.
+     */
+    public interface ShardQuery {
+        Cursor query(SQLiteDatabase db);
+    }
+
+    private final PetDBHelper[] mHelpers;
+    private final PetStatementCache[] mStatementCaches;
+    private final AtomicInteger mNextShard = new AtomicInteger();
+    // Per thread, how many transactions from beginTransactions() are open on each shard
+    private final ThreadLocal<int[]> mOpenTransactions = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[mHelpers.length];
+        }
+    };
+    // Null with a single shard, which is always queried on the caller's thread
+    private final ThreadPoolExecutor mQueryExecutor;
+
+    public PetShardedStore(Context context, int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("Shard count must be at least 1, not " + shardCount);
+        }
+        mHelpers = new PetDBHelper[shardCount];
+        mStatementCaches = new PetStatementCache[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            mHelpers[i] = shardCount == 1 ? new PetDBHelper(context)
+                    : new PetDBHelper(context, getDatabaseName(i), i * SHARD_ID_RANGE);
+            mStatementCaches[i] = new PetStatementCache();
+        }
+        if (shardCount == 1) {
+            mQueryExecutor = null;
+            return;
+        }
+        // Shard queries are CPU and I/O bound, so more threads than cores only adds contention
+        int threads = Math.min(shardCount, Runtime.getRuntime().availableProcessors());
+        mQueryExecutor = new ThreadPoolExecutor(threads, threads, QUERY_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mThreadNumber = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        // The caller is blocked on the result, so these keep normal priority
+                        Thread thread = new Thread(runnable, LOG_TAG + "-" + mThreadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mQueryExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public static String getDatabaseName(int shard) {
+        return SHARD_DATABASE_PREFIX + shard + ".db";
+    }
+
+    public int getShardCount() {
+        return mHelpers.length;
+    }
+
+    public boolean isSharded() {
+        return mHelpers.length > 1;
+    }
+
+    public PetDBHelper getHelper(int shard) {
+        return mHelpers[shard];
+    }
+
+    /**
+     * The statement cache for {@code shard}'s writable database. As with any PetStatementCache,
+     * hold its monitor while using a statement from it.
+     */
+    public PetStatementCache getStatementCache(int shard) {
+        return mStatementCaches[shard];
+    }
+
+    /**
+     * The shard holding the pet with {@code id}, or -1 if no shard in this store could.
+     */
+    public int getShard(long id) {
+        if (mHelpers.length == 1) {
+            return 0;
+        }
+        if (id <= 0) {
+            return -1;
+        }
+        long shard = (id - 1) / SHARD_ID_RANGE;
+        return shard < mHelpers.length ? (int) shard : -1;
+    }
+
+    /**
+     * The shard the next new pet should go to. Rotating spreads concurrent writers evenly. A
+     * thread inside {@link #beginTransactions(boolean[])}, as in a batch, rotates among the shards
+     * it holds only, so it never has to wait for another shard's connection while it holds them.
+     */
+    public int nextInsertShard() {
+        int next = (mNextShard.getAndIncrement() & Integer.MAX_VALUE) % mHelpers.length;
+        if (mHelpers.length == 1) {
+            return next;
+        }
+        int[] open = mOpenTransactions.get();
+        for (int i = 0; i < mHelpers.length; i++) {
+            int shard = (next + i) % mHelpers.length;
+            if (open[shard] > 0) {
+                return shard;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Runs {@code query} on every shard's readable database in parallel and returns the cursors,
+     * with their first window filled, in shard order. If any shard fails the others' cursors are
+     * closed and the first failure is rethrown.
+     */
+    public Cursor[] queryAll(final ShardQuery query) {
+        if (mQueryExecutor == null) {
+            return new Cursor[] {fill(query.query(mHelpers[0].getReadableDatabase()))};
+        }
+        List<Callable<Cursor>> tasks = new ArrayList<>(mHelpers.length);
+        for (final PetDBHelper helper : mHelpers) {
+            tasks.add(new Callable<Cursor>() {
+                @Override
+                public Cursor call() {
+                    return fill(query.query(helper.getReadableDatabase()));
+                }
+            });
+        }
+        List<Future<Cursor>> futures;
+        try {
+            futures = mQueryExecutor.invokeAll(tasks);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying shards", e);
+        }
+        Cursor[] cursors = new Cursor[futures.size()];
+        Throwable failure = null;
+        for (int i = 0; i < cursors.length; i++) {
+            try {
+                cursors[i] = futures.get(i).get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause();
+                }
+            } catch (InterruptedException e) {
+                // invokeAll() has already waited for every task
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure == null) {
+            return cursors;
+        }
+        for (Cursor cursor : cursors) {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        throw new IllegalStateException(failure);
+    }
+
+    private static Cursor fill(Cursor cursor) {
+        cursor.getCount();
+        return cursor;
+    }
+
+    /**
+     * Queries {@code table} on every shard and merges the rows into one cursor. The merge keeps
+     * {@code orderBy}, which must be plain columns (see {@link PetSortOrder}), and re-applies
+     * DISTINCT and the limit across shards. Sort columns missing from the projection are fetched
+     * but not exposed. Aggregates in the projection are computed per shard, not overall.
+     */
+    public Cursor query(final boolean distinct, final String table, String[] projection, final String selection,
+                        final String[] selectionArgs, final String orderBy, final String limit,
+                        final CancellationSignal cancellationSignal) {
+        if (mQueryExecutor == null) {
+            return queryShard(mHelpers[0].getReadableDatabase(), distinct, table, projection, selection, selectionArgs,
+                    orderBy, limit, cancellationSignal);
+        }
+        PetSortOrder order = PetSortOrder.parse(orderBy);
+        int visibleColumns = projection != null ? projection.length : -1;
+        if (projection != null) {
+            List<String> columns = new ArrayList<>(Arrays.asList(projection));
+            for (String column : order.getColumns()) {
+                if (!columns.contains(column)) {
+                    columns.add(column);
+                }
+            }
+            projection = columns.toArray(new String[columns.size()]);
+        }
+        final String[] shardProjection = projection;
+        Cursor[] cursors = queryAll(new ShardQuery() {
+            @Override
+            public Cursor query(SQLiteDatabase db) {
+                return queryShard(db, distinct, table, shardProjection, selection, selectionArgs, orderBy, limit,
+                        cancellationSignal);
+            }
+        });
+        return new PetMergeCursor(cursors, visibleColumns >= 0 ? visibleColumns : cursors[0].getColumnCount(),
+                order, distinct, TextUtils.isEmpty(limit) ? -1 : Integer.parseInt(limit));
+    }
+
+    // The cancellable overload only exists from API 16, where the signal can be non-null
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static Cursor queryShard(SQLiteDatabase db, boolean distinct, String table, String[] projection,
+                                     String selection, String[] selectionArgs, String orderBy, String limit,
+                                     CancellationSignal cancellationSignal) {
+        if (cancellationSignal == null) {
+            return db.query(distinct, table, projection, selection, selectionArgs, null, null, orderBy, limit);
+        }
+        return db.query(distinct, table, projection, selection, selectionArgs, null, null, orderBy, limit, cancellationSignal);
+    }
+
+    /**
+     * Reads one of the {@link PetStatsEntry} summary tables, keyed by {@code keyColumn}, with the
+     * counts for each key added up over all shards. The projection and {@code orderBy} may only
+     * use the key and {@link PetStatsEntry#COLUMN_COUNT}.
+     */
+    public Cursor querySummary(String table, final String keyColumn, String[] projection, String selection,
+                               String[] selectionArgs, String orderBy, String limit) {
+        if (mQueryExecutor == null) {
+            return mHelpers[0].getReadableDatabase().query(table, projection, selection, selectionArgs, null, null,
+                    orderBy, limit);
+        }
+        final List<String> summaryColumns = Arrays.asList(keyColumn, PetStatsEntry.COLUMN_COUNT);
+        final String[] columns = projection != null ? projection : summaryColumns.toArray(new String[2]);
+        final PetSortOrder order = PetSortOrder.parse(orderBy);
+        for (String column : order.getColumns()) {
+            checkSummaryColumn(summaryColumns, column);
+        }
+        for (String column : columns) {
+            checkSummaryColumn(summaryColumns, column);
+        }
+
+        Map<Object, Long> counts = new LinkedHashMap<>();
+        Cursor[] cursors = querySummaryShards(table, keyColumn, selection, selectionArgs);
+        try {
+            for (Cursor cursor : cursors) {
+                while (cursor.moveToNext()) {
+                    Object key = PetSortOrder.readValue(cursor, 0);
+                    Long count = counts.get(key);
+                    counts.put(key, (count != null ? count : 0) + cursor.getLong(1));
+                }
+            }
+        } finally {
+            for (Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+
+        List<Object[]> rows = new ArrayList<>(counts.size());
+        for (Map.Entry<Object, Long> entry : counts.entrySet()) {
+            rows.add(new Object[] {entry.getKey(), entry.getValue()});
+        }
+        if (!order.isEmpty()) {
+            final int[] keyIndexes = new int[order.getColumns().length];
+            for (int i = 0; i < keyIndexes.length; i++) {
+                keyIndexes[i] = summaryColumns.indexOf(order.getColumns()[i]);
+            }
+            Collections.sort(rows, new Comparator<Object[]>() {
+                @Override
+                public int compare(Object[] a, Object[] b) {
+                    return order.compare(select(a, keyIndexes), select(b, keyIndexes));
+                }
+            });
+        }
+        int count = TextUtils.isEmpty(limit) ? rows.size() : Math.min(rows.size(), Integer.parseInt(limit));
+        MatrixCursor cursor = new MatrixCursor(columns, count);
+        for (int i = 0; i < count; i++) {
+            Object[] values = new Object[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                values[j] = rows.get(i)[summaryColumns.indexOf(columns[j])];
+            }
+            cursor.addRow(values);
+        }
+        return cursor;
+    }
+
+    private Cursor[] querySummaryShards(final String table, final String keyColumn, final String selection,
+                                        final String[] selectionArgs) {
+        return queryAll(new ShardQuery() {
+            @Override
+            public Cursor query(SQLiteDatabase db) {
+                return db.query(table, new String[] {keyColumn, PetStatsEntry.COLUMN_COUNT}, selection, selectionArgs,
+                        null, null, null);
+            }
+        });
+    }
+
+    private static void checkSummaryColumn(List<String> summaryColumns, String column) {
+        if (!summaryColumns.contains(column)) {
+            throw new IllegalArgumentException("Column " + column + " can't be summed over shards");
+        }
+    }
+
+    private static Object[] select(Object[] row, int[] indexes) {
+        Object[] values = new Object[indexes.length];
+        for (int i = 0; i < indexes.length; i++) {
+            values[i] = row[indexes[i]];
+        }
+        return values;
+    }
+
+    /**
+     * Begins a transaction on the writable database of each shard flagged in {@code shards}, or of
+     * every shard if it is null. They are always taken in shard order so that two callers doing
+     * this at once can't each hold a shard the other is waiting for. If one can't be begun, those
+     * already begun are rolled back before the failure is rethrown. Until they are ended, the
+     * calling thread's inserts go to these shards; see {@link #nextInsertShard()}.
+     */
+    public void beginTransactions(boolean[] shards) {
+        int[] open = mOpenTransactions.get();
+        int begun = 0;
+        try {
+            for (; begun < mHelpers.length; begun++) {
+                if (shards == null || shards[begun]) {
+                    mHelpers[begun].getWritableDatabase().beginTransaction();
+                    open[begun]++;
+                }
+            }
+        } finally {
+            if (begun < mHelpers.length) {
+                boolean[] rollback = new boolean[mHelpers.length];
+                for (int i = 0; i < begun; i++) {
+                    rollback[i] = shards == null || shards[i];
+                }
+                endTransactions(rollback, false);
+            }
+        }
+    }
+
+    /**
+     * Ends the transactions from {@link #beginTransactions(boolean[])} for the same
+     * {@code shards}, committing them if {@code successful}. Each shard commits on its own; a
+     * failure partway leaves the earlier shards committed. Every shard's transaction is ended
+     * even if another's commit fails, and the first failure is rethrown afterwards.
+     */
+    public void endTransactions(boolean[] shards, boolean successful) {
+        int[] open = mOpenTransactions.get();
+        RuntimeException failure = null;
+        for (int i = 0; i < mHelpers.length; i++) {
+            if (shards != null && !shards[i]) {
+                continue;
+            }
+            try {
+                SQLiteDatabase db = mHelpers[i].getWritableDatabase();
+                try {
+                    if (successful) {
+                        db.setTransactionSuccessful();
+                    }
+                } finally {
+                    open[i]--;
+                    db.endTransaction();
+                }
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Releases cached statements, stops the query pool and closes every shard.
+     */
+    public void close() {
+        if (mQueryExecutor != null) {
+            mQueryExecutor.shutdown();
+        }
+        for (int i = 0; i < mHelpers.length; i++) {
+            mStatementCaches[i].clear();
+            mHelpers[i].close();
+        }
+    }
+}
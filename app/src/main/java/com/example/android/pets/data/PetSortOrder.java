@@ -0,0 +1,144 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An ORDER BY clause made of plain column names, each optionally ASC or DESC, that can be
+ * evaluated in Java the way SQLite would with its default BINARY collation. Used to merge rows
+ * that were sorted separately by each shard.
+ */
+class PetSortOrder implements Comparator<Object[]> {
+    private static final Pattern TERM = Pattern.compile("\\s*([A-Za-z_][A-Za-z0-9_]*)(?:\\s+(ASC|DESC))?\\s*",
+            Pattern.CASE_INSENSITIVE);
+    // SQLite sorts NULL first, then numbers, then text, then blobs
+    private static final int CLASS_NULL = 0;
+    private static final int CLASS_NUMBER = 1;
+    private static final int CLASS_TEXT = 2;
+    private static final int CLASS_BLOB = 3;
+
+    private final String[] mColumns;
+    private final boolean[] mDescending;
+
+    private PetSortOrder(String[] columns, boolean[] descending) {
+        mColumns = columns;
+        mDescending = descending;
+    }
+
+    /**
+     * Parses {@code orderBy}; an empty clause gives an order with no columns. Throws
+     * IllegalArgumentException for anything but comma-separated column names with an optional
+     * direction, such as expressions or COLLATE.
+     */
+    static PetSortOrder parse(String orderBy) {
+        if (TextUtils.isEmpty(orderBy)) {
+            return new PetSortOrder(new String[0], new boolean[0]);
+        }
+        String[] terms = orderBy.split(",");
+        String[] columns = new String[terms.length];
+        boolean[] descending = new boolean[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            Matcher matcher = TERM.matcher(terms[i]);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Cannot merge shards on ORDER BY " + orderBy);
+            }
+            columns[i] = matcher.group(1);
+            descending[i] = "DESC".equalsIgnoreCase(matcher.group(2));
+        }
+        return new PetSortOrder(columns, descending);
+    }
+
+    String[] getColumns() {
+        return mColumns;
+    }
+
+    boolean isEmpty() {
+        return mColumns.length == 0;
+    }
+
+    /**
+     * Compares two rows holding this order's values in column order, as read by {@link #readKey}.
+     */
+    @Override
+    public int compare(Object[] a, Object[] b) {
+        for (int i = 0; i < mColumns.length; i++) {
+            int result = compareValues(a[i], b[i]);
+            if (result != 0) {
+                return mDescending[i] ? -result : result;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads the current row's values at {@code columnIndexes}, one per sort column.
+     */
+    static Object[] readKey(Cursor cursor, int[] columnIndexes) {
+        Object[] key = new Object[columnIndexes.length];
+        for (int i = 0; i < columnIndexes.length; i++) {
+            key[i] = readValue(cursor, columnIndexes[i]);
+        }
+        return key;
+    }
+
+    static Object readValue(Cursor cursor, int column) {
+        switch (cursor.getType(column)) {
+            case Cursor.FIELD_TYPE_NULL:
+                return null;
+            case Cursor.FIELD_TYPE_INTEGER:
+                return cursor.getLong(column);
+            case Cursor.FIELD_TYPE_FLOAT:
+                return cursor.getDouble(column);
+            case Cursor.FIELD_TYPE_BLOB:
+                return cursor.getBlob(column);
+            default:
+                return cursor.getString(column);
+        }
+    }
+
+    static int compareValues(Object a, Object b) {
+        int classA = storageClass(a);
+        int classB = storageClass(b);
+        if (classA != classB) {
+            return classA - classB;
+        }
+        switch (classA) {
+            case CLASS_NULL:
+                return 0;
+            case CLASS_NUMBER:
+                if (a instanceof Long && b instanceof Long) {
+                    return Long.compare((Long) a, (Long) b);
+                }
+                return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+            case CLASS_TEXT:
+                return PetCollation.compareCodePoints((String) a, (String) b);
+            default:
+                return compareBytes((byte[]) a, (byte[]) b);
+        }
+    }
+
+    private static int storageClass(Object value) {
+        if (value == null) {
+            return CLASS_NULL;
+        } else if (value instanceof Number) {
+            return CLASS_NUMBER;
+        } else if (value instanceof byte[]) {
+            return CLASS_BLOB;
+        }
+        return CLASS_TEXT;
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int result = (a[i] & 0xff) - (b[i] & 0xff);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return a.length - b.length;
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.android.pets.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of compiled {@link SQLiteStatement}s for the provider's fixed-shape writes,
+ * keyed by operation and column set.
+ * <p>
+ * A statement can only be used by one thread at a time, so callers hold the cache's monitor
+ * from {@link #acquire} through binding and executing the statement. They take the database's
+ * write connection first, by beginning a transaction, and only then the monitor: a thread holding
+ * the monitor while it waits for the connection would deadlock against one whose transaction
+ * holds the connection and wants the monitor.
+ * <pre>
+ * db.beginTransactionNonExclusive();
+ * try {
+ *     synchronized (cache) {
+ *         SQLiteStatement statement = cache.acquire(db, generation, key);
+ *         if (statement == null) {
+ *             statement = cache.store(db, key, sql);
+ *         }
+ *         ...bind and execute...
+ *     }
+ *     db.setTransactionSuccessful();
+ * } finally {
+ *     db.endTransaction();
+ * }
+ * </pre>
+ * The cache empties itself whenever it is handed a different database or schema generation
+ * than the statements were compiled against.
+ */
+public class PetStatementCache {
+    public static final int DEFAULT_MAX_SIZE = 16;
+
+    private final int mMaxSize;
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+    private SQLiteDatabase mDatabase;
+    private int mSchemaGeneration;
+
+    private final LinkedHashMap<String, SQLiteStatement> mStatements =
+            new LinkedHashMap<String, SQLiteStatement>(DEFAULT_MAX_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                    if (size() > mMaxSize) {
+                        eldest.getValue().close();
+                        mEvictions.incrementAndGet();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    public PetStatementCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public PetStatementCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the cached statement for {@code key}, or null if it has to be compiled with
+     * {@link #store}.
+     */
+    public synchronized SQLiteStatement acquire(SQLiteDatabase db, int schemaGeneration, String key) {
+        if (db != mDatabase || schemaGeneration != mSchemaGeneration) {
+            clear();
+            mDatabase = db;
+            mSchemaGeneration = schemaGeneration;
+        }
+        SQLiteStatement statement = mStatements.get(key);
+        if (statement == null) {
+            mMisses.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
+            statement.clearBindings();
+        }
+        return statement;
+    }
+
+    public synchronized SQLiteStatement store(SQLiteDatabase db, String key, String sql) {
+        SQLiteStatement statement = db.compileStatement(sql);
+        mStatements.put(key, statement);
+        return statement;
+    }
+
+    /**
+     * Closes and drops every cached statement.
+     */
+    public synchronized void clear() {
+        for (Iterator<SQLiteStatement> iterator = mStatements.values().iterator(); iterator.hasNext(); ) {
+            iterator.next().close();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Binds {@code value} using the SQLite type matching its Java type.
+     */
+    public static void bindValue(SQLiteStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+
+    public synchronized int size() {
+        return mStatements.size();
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    /**
+     * Fraction of lookups served from the cache, or 0 before the first lookup.
+     */
+    public double getHitRate() {
+        long hits = mHits.get();
+        long total = hits + mMisses.get();
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    @Override
+    public String toString() {
+        return "PetStatementCache{size=" + size()
+                + ", hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", evictions=" + getEvictionCount()
+                + ", hitRate=" + getHitRate() + "}";
+    }
+}
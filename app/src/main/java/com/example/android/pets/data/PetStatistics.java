@@ -0,0 +1,97 @@
+package com.example.android.pets.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Consistency checks for the trigger-maintained summary tables in {@link PetStatsEntry}.
+ * {@link #verify} recounts everything from the pets table and reports where the incremental
+ * counts disagree; {@link #rebuild} replaces the summaries with a fresh recount.
+ */
+public final class PetStatistics {
+    private static final String WEIGHT_BUCKET = PetEntry.COLUMN_PET_WEIGHT + " / " + PetStatsEntry.WEIGHT_BUCKET_SIZE;
+
+    // {summary table, key column, recount query} for each summary. Breeds are counted through the
+    // view, which resolves the stored breed id to the name the summary is keyed by.
+    private static final String[][] SUMMARIES = {
+            {PetStatsEntry.TABLE_GENDER_COUNTS, PetEntry.COLUMN_PET_GENDER,
+                    "SELECT " + PetEntry.COLUMN_PET_GENDER + ", COUNT(*) FROM " + PetEntry.TABLE_NAME
+                            + " GROUP BY " + PetEntry.COLUMN_PET_GENDER},
+            {PetStatsEntry.TABLE_WEIGHT_HISTOGRAM, PetStatsEntry.COLUMN_WEIGHT_BUCKET,
+                    "SELECT " + WEIGHT_BUCKET + ", COUNT(*) FROM " + PetEntry.TABLE_NAME + " GROUP BY 1"},
+            {PetStatsEntry.TABLE_BREED_COUNTS, PetEntry.COLUMN_PET_BREED,
+                    "SELECT " + PetEntry.COLUMN_PET_BREED + ", COUNT(*) FROM " + PetEntry.VIEW_NAME + " GROUP BY 1"}
+    };
+
+    private PetStatistics() {
+    }
+
+    /**
+     * Recounts every summary from the pets table and returns one description per disagreeing
+     * key. An empty list means the incremental counts are consistent.
+     */
+    public static List<String> verify(SQLiteDatabase db) {
+        List<String> mismatches = new ArrayList<>();
+        // Holds writers off so both sides are counted from the same data; readers are unaffected
+        db.beginTransactionNonExclusive();
+        try {
+            for (String[] summary : SUMMARIES) {
+                Map<String, Long> expected = readCounts(db, summary[2]);
+                Map<String, Long> actual = readCounts(db, "SELECT " + summary[1] + ", " + PetStatsEntry.COLUMN_COUNT
+                        + " FROM " + summary[0] + " WHERE " + PetStatsEntry.COLUMN_COUNT + " != 0");
+                Set<String> keys = new HashSet<>(expected.keySet());
+                keys.addAll(actual.keySet());
+                for (String key : keys) {
+                    long expectedCount = expected.containsKey(key) ? expected.get(key) : 0;
+                    long actualCount = actual.containsKey(key) ? actual.get(key) : 0;
+                    if (expectedCount != actualCount) {
+                        mismatches.add(summary[0] + "[" + key + "]: incremental=" + actualCount + ", rebuilt=" + expectedCount);
+                    }
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return mismatches;
+    }
+
+    /**
+     * Replaces every summary table's contents with a fresh recount of the pets table.
+     */
+    public static void rebuild(SQLiteDatabase db) {
+        db.beginTransaction();
+        try {
+            for (String[] summary : SUMMARIES) {
+                db.execSQL("DELETE FROM " + summary[0]);
+                db.execSQL("INSERT INTO " + summary[0] + "(" + summary[1] + ", " + PetStatsEntry.COLUMN_COUNT + ") " + summary[2]);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private static Map<String, Long> readCounts(SQLiteDatabase db, String sql) {
+        Map<String, Long> counts = new HashMap<>();
+        Cursor cursor = db.rawQuery(sql, null);
+        try {
+            while (cursor.moveToNext()) {
+                counts.put(cursor.getString(0), cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return counts;
+    }
+}
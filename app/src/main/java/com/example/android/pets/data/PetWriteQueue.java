@@ -0,0 +1,194 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies pet writes off the main thread, group-committing them.
+ * <p>
+ * Writes are queued rather than run immediately. The first write into an empty queue schedules
+ * a flush {@link #DEFAULT_WINDOW_MILLIS} later on a single background thread, and everything
+ * queued by then goes to {@link PetProvider#applyBatch} as one transaction, so a burst of edits
+ * costs one journal commit. If the batch fails, each write is retried in its own transaction so
+ * one bad write can't sink the others. Every write's outcome is posted to its
+ * {@link Callback} on the main thread.
+ */
+public class PetWriteQueue {
+    private static final String LOG_TAG = PetWriteQueue.class.getSimpleName();
+    public static final long DEFAULT_WINDOW_MILLIS = 30;
+    // A full batch flushes straight away instead of waiting out the window
+    public static final int MAX_BATCH_SIZE = 500;
+
+    private static PetWriteQueue sInstance;
+
+    /**
+     * Receives one write's outcome on the main thread.
+     */
+    public interface Callback {
+        void onWriteComplete(ContentProviderResult result);
+
+        void onWriteFailed(Exception e);
+    }
+
+    private static class PendingWrite {
+        final ContentProviderOperation operation;
+        final Callback callback;
+
+        PendingWrite(ContentProviderOperation operation, Callback callback) {
+            this.operation = operation;
+            this.callback = callback;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final ScheduledExecutorService mExecutor;
+    private final long mWindowMillis;
+    private List<PendingWrite> mPending = new ArrayList<>();
+    private boolean mFlushScheduled = false;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flushPending();
+        }
+    };
+
+    public static synchronized PetWriteQueue getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PetWriteQueue(context.getApplicationContext().getContentResolver(), DEFAULT_WINDOW_MILLIS);
+        }
+        return sInstance;
+    }
+
+    PetWriteQueue(ContentResolver resolver, long windowMillis) {
+        mResolver = resolver;
+        mWindowMillis = windowMillis;
+        mExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public void insert(ContentValues values, Callback callback) {
+        enqueue(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI).withValues(values).build(), callback);
+    }
+
+    public void update(Uri uri, ContentValues values, Callback callback) {
+        enqueue(ContentProviderOperation.newUpdate(uri).withValues(values).build(), callback);
+    }
+
+    public void delete(Uri uri, Callback callback) {
+        enqueue(ContentProviderOperation.newDelete(uri).build(), callback);
+    }
+
+    /**
+     * Queues a delete of every pet matching {@code criteria}.
+     *
+     * @throws IllegalStateException if the criteria is empty
+     */
+    public void delete(PetCriteria criteria, Callback callback) {
+        if (criteria.isEmpty()) {
+            throw new IllegalStateException("Refusing to delete with empty criteria");
+        }
+        enqueue(ContentProviderOperation.newDelete(PetEntry.CONTENT_URI)
+                .withSelection(criteria.getSelection(), criteria.getSelectionArgs())
+                .build(), callback);
+    }
+
+    public void enqueue(ContentProviderOperation operation, Callback callback) {
+        synchronized (this) {
+            mPending.add(new PendingWrite(operation, callback));
+            if (mPending.size() >= MAX_BATCH_SIZE) {
+                mExecutor.execute(mFlushRunnable);
+                mFlushScheduled = true;
+            } else if (!mFlushScheduled) {
+                mExecutor.schedule(mFlushRunnable, mWindowMillis, TimeUnit.MILLISECONDS);
+                mFlushScheduled = true;
+            }
+        }
+    }
+
+    // Runs on the executor thread only
+    private void flushPending() {
+        List<PendingWrite> batch;
+        synchronized (this) {
+            if (mPending.isEmpty()) {
+                return;
+            }
+            batch = mPending;
+            mPending = new ArrayList<>();
+            mFlushScheduled = false;
+        }
+        ArrayList<ContentProviderOperation> operations = new ArrayList<>(batch.size());
+        for (PendingWrite write : batch) {
+            operations.add(write.operation);
+        }
+        try {
+            ContentProviderResult[] results = mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, operations);
+            for (int i = 0; i < batch.size(); i++) {
+                deliver(batch.get(i).callback, results[i], null);
+            }
+        } catch (Exception e) {
+            if (batch.size() == 1) {
+                Log.e(LOG_TAG, "Pet write failed", e);
+                deliver(batch.get(0).callback, null, e);
+                return;
+            }
+            Log.w(LOG_TAG, "Batch of " + batch.size() + " pet writes failed, retrying one at a time", e);
+            for (PendingWrite write : batch) {
+                ArrayList<ContentProviderOperation> single = new ArrayList<>(1);
+                single.add(write.operation);
+                try {
+                    deliver(write.callback, mResolver.applyBatch(PetContract.CONTENT_AUTHORITY, single)[0], null);
+                } catch (Exception writeError) {
+                    Log.e(LOG_TAG, "Pet write failed", writeError);
+                    deliver(write.callback, null, writeError);
+                }
+            }
+        }
+    }
+
+    private void deliver(final Callback callback, final ContentProviderResult result, final Exception error) {
+        if (callback == null) {
+            return;
+        }
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (error == null) {
+                    callback.onWriteComplete(result);
+                } else {
+                    callback.onWriteFailed(error);
+                }
+            }
+        });
+    }
+}
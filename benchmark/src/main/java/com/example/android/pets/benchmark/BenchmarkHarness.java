@@ -0,0 +1,131 @@
+package com.example.android.pets.benchmark;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Small JMH-style measurement loop: warmup iterations whose timings are discarded, then
+ * measurement iterations timing every operation. Results are collected per (benchmark, table
+ * size) and written out as a JSON array so runs can be compared mechanically.
+ */
+final class BenchmarkHarness {
+
+    /**
+     * One timed operation. {@code invocation} counts up from 0 across warmup and measurement,
+     * so operations can pick distinct rows.
+     */
+    interface Operation {
+        void run(int invocation);
+    }
+
+    static final class Result {
+        final String benchmark;
+        final int tableSize;
+        final int operations;
+        final double opsPerSecond;
+        final long meanNanos;
+        final long p50Nanos;
+        final long p90Nanos;
+        final long p99Nanos;
+        final long maxNanos;
+
+        Result(String benchmark, int tableSize, long[] samples) {
+            this.benchmark = benchmark;
+            this.tableSize = tableSize;
+            this.operations = samples.length;
+            long total = 0;
+            for (long sample : samples) {
+                total += sample;
+            }
+            Arrays.sort(samples);
+            this.meanNanos = total / Math.max(samples.length, 1);
+            this.opsPerSecond = total == 0 ? 0 : samples.length * 1e9 / total;
+            this.p50Nanos = percentile(samples, 0.50);
+            this.p90Nanos = percentile(samples, 0.90);
+            this.p99Nanos = percentile(samples, 0.99);
+            this.maxNanos = samples.length == 0 ? 0 : samples[samples.length - 1];
+        }
+
+        private static long percentile(long[] sorted, double fraction) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            return sorted[Math.min(sorted.length - 1, (int) Math.ceil(fraction * sorted.length) - 1)];
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-16s n=%-8d %12.1f ops/s  mean %9d ns  p50 %9d ns  p99 %9d ns",
+                    benchmark, tableSize, opsPerSecond, meanNanos, p50Nanos, p99Nanos);
+        }
+    }
+
+    private final int mWarmupOperations;
+    private final int mMeasuredOperations;
+    private final List<Result> mResults = new ArrayList<>();
+
+    BenchmarkHarness(int warmupOperations, int measuredOperations) {
+        mWarmupOperations = warmupOperations;
+        mMeasuredOperations = measuredOperations;
+    }
+
+    Result measure(String benchmark, int tableSize, Operation operation) {
+        return measure(benchmark, tableSize, mWarmupOperations, mMeasuredOperations, operation);
+    }
+
+    Result measure(String benchmark, int tableSize, int warmupOperations, int measuredOperations, Operation operation) {
+        int invocation = 0;
+        for (int i = 0; i < warmupOperations; i++) {
+            operation.run(invocation++);
+        }
+        long[] samples = new long[measuredOperations];
+        for (int i = 0; i < measuredOperations; i++) {
+            long start = System.nanoTime();
+            operation.run(invocation++);
+            samples[i] = System.nanoTime() - start;
+        }
+        Result result = new Result(benchmark, tableSize, samples);
+        mResults.add(result);
+        System.out.println(result);
+        return result;
+    }
+
+    /**
+     * Records a value that was measured outside {@link #measure}, such as a file size, as a
+     * single-sample result whose "nanos" fields hold the value.
+     */
+    void record(String benchmark, int tableSize, long value) {
+        Result result = new Result(benchmark, tableSize, new long[] {value});
+        mResults.add(result);
+        System.out.println(benchmark + " n=" + tableSize + " " + value);
+    }
+
+    void writeJson(File file) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Could not create " + parent);
+        }
+        Writer writer = new FileWriter(file);
+        try {
+            writer.write("[\n");
+            for (int i = 0; i < mResults.size(); i++) {
+                Result result = mResults.get(i);
+                writer.write(String.format(Locale.US,
+                        "  {\"benchmark\": \"%s\", \"tableSize\": %d, \"operations\": %d, \"opsPerSecond\": %.3f, "
+                                + "\"meanNanos\": %d, \"p50Nanos\": %d, \"p90Nanos\": %d, \"p99Nanos\": %d, \"maxNanos\": %d}%s\n",
+                        result.benchmark, result.tableSize, result.operations, result.opsPerSecond,
+                        result.meanNanos, result.p50Nanos, result.p90Nanos, result.p99Nanos, result.maxNanos,
+                        i < mResults.size() - 1 ? "," : ""));
+            }
+            writer.write("]\n");
+        } finally {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.example.android.pets.benchmark;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetCriteria;
+import com.example.android.pets.data.PetDBHelper;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Database size and breed-filter latency with breeds stored as text on every pet (schema version
+ * 4) against the same pets after migrating to the breed dictionary (version 5). For each size in
+ * {@code pets.benchmark.sizes}, a version 4 database is filled with a few hundred skewed breeds,
+ * measured, migrated in place, vacuumed and measured again. Results go to
+ * {@code pets.benchmark.output}/breeds-&lt;size&gt;.json, with ".v4" and ".v5" benchmark suffixes.
+ * <p>
+ * Queries run straight against SQLite, as the provider issues them for each schema: a plain
+ * comparison on the pets table before, and the {@link PetCriteria} clause on the view after.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class BreedDictionaryBenchmark {
+    private static final String DEFAULT_SIZES = "1000,100000,1000000";
+    private static final int FILL_TRANSACTION_SIZE = 10000;
+    private static final int WARMUP_OPERATIONS = 20;
+    private static final int MEASURED_OPERATIONS = 200;
+    private static final int PAGE_SIZE = 100;
+    private static final int MAX_WEIGHT = 60;
+    private static final String[] BREED_PREFIXES = {"Longhaired", "Shorthaired", "Miniature", "Standard", "Giant", "Royal"};
+    private static final String[] BREED_REGIONS = {"Mountain", "Valley", "Coastal", "Highland", "Forest", "Desert", "Island"};
+    private static final String[] BREED_KINDS = {"Terrier", "Spaniel", "Retriever", "Shepherd", "Hound", "Setter", "Pointer"};
+
+    private final Random mRandom = new Random(42);
+    private final String[] mBreeds = buildBreeds();
+
+    @Test
+    public void benchmarkBreedDictionary() throws IOException {
+        File outputDir = new File(System.getProperty("pets.benchmark.output", "build/benchmark"));
+        for (String size : System.getProperty("pets.benchmark.sizes", DEFAULT_SIZES).split(",")) {
+            runAtSize(Integer.parseInt(size.trim()), outputDir);
+        }
+    }
+
+    private void runAtSize(int tableSize, File outputDir) throws IOException {
+        File file = RuntimeEnvironment.application.getDatabasePath("breeds-benchmark.db");
+        SQLiteDatabase.deleteDatabase(file);
+        file.getParentFile().mkdirs();
+        SQLiteDatabase db = SQLiteDatabase.openOrCreateDatabase(file, null);
+        BenchmarkHarness harness = new BenchmarkHarness(WARMUP_OPERATIONS, MEASURED_OPERATIONS);
+        try {
+            PetDBHelper.create(db, 4);
+            fill(db, tableSize);
+            db.execSQL("VACUUM");
+            measure(harness, db, file, tableSize, "v4", PetEntry.TABLE_NAME,
+                    PetEntry.COLUMN_PET_BREED + " = ?", PetEntry.COLUMN_PET_BREED);
+
+            long startTime = System.nanoTime();
+            db.beginTransaction();
+            try {
+                PetDBHelper.migrate(db, 4, 5);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            harness.record("migrateMillis", tableSize, (System.nanoTime() - startTime) / 1000000);
+            db.execSQL("VACUUM");
+            measure(harness, db, file, tableSize, "v5", PetEntry.VIEW_NAME,
+                    new PetCriteria.Builder().breed(mBreeds[0]).build().getSelection(), PetEntry.COLUMN_PET_BREED_ID);
+        } finally {
+            db.close();
+            SQLiteDatabase.deleteDatabase(file);
+        }
+        harness.writeJson(new File(outputDir, "breeds-" + tableSize + ".json"));
+    }
+
+    private void measure(BenchmarkHarness harness, final SQLiteDatabase db, File file, int tableSize, String version,
+                         final String table, final String breedSelection, final String groupColumn) {
+        harness.record("databaseBytes." + version, tableSize, file.length());
+
+        harness.measure("breedFilterCount." + version, tableSize, new BenchmarkHarness.Operation() {
+            @Override
+            public void run(int invocation) {
+                drain(db.rawQuery("SELECT COUNT(*) FROM " + table + " WHERE " + breedSelection,
+                        new String[] {randomBreed()}));
+            }
+        });
+
+        harness.measure("breedFilterPage." + version, tableSize, new BenchmarkHarness.Operation() {
+            @Override
+            public void run(int invocation) {
+                drain(db.query(table, PetEntry.PET_COLUMN_LIST, breedSelection, new String[] {randomBreed()},
+                        null, null, PetEntry._ID, String.valueOf(PAGE_SIZE)));
+            }
+        });
+
+        // Grouping is O(n), so fewer iterations keep the largest sizes bounded
+        int groupings = Math.max(3, Math.min(50, 10000000 / Math.max(tableSize, 1)));
+        harness.measure("breedGroupBy." + version, tableSize, 1, groupings, new BenchmarkHarness.Operation() {
+            @Override
+            public void run(int invocation) {
+                drain(db.rawQuery("SELECT " + PetEntry.COLUMN_PET_BREED + ", COUNT(*) FROM " + table
+                        + " GROUP BY " + groupColumn, null));
+            }
+        });
+    }
+
+    private void fill(SQLiteDatabase db, int tableSize) {
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + PetEntry.TABLE_NAME + " ("
+                + PetEntry.COLUMN_PET_NAME + ", " + PetEntry.COLUMN_PET_BREED + ", "
+                + PetEntry.COLUMN_PET_GENDER + ", " + PetEntry.COLUMN_PET_WEIGHT + ") VALUES (?, ?, ?, ?)");
+        try {
+            for (int done = 0; done < tableSize; ) {
+                db.beginTransaction();
+                try {
+                    for (int end = Math.min(done + FILL_TRANSACTION_SIZE, tableSize); done < end; done++) {
+                        insert.clearBindings();
+                        insert.bindString(1, "Pet " + Integer.toString(mRandom.nextInt(1000000), 36));
+                        // One pet in ten has no breed
+                        if (mRandom.nextInt(10) != 0) {
+                            insert.bindString(2, randomBreed());
+                        }
+                        insert.bindLong(3, mRandom.nextInt(3));
+                        insert.bindLong(4, 1 + mRandom.nextInt(MAX_WEIGHT));
+                        insert.executeInsert();
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+            }
+        } finally {
+            insert.close();
+        }
+    }
+
+    // Skewed towards the start of the list, as real breed popularity is
+    private String randomBreed() {
+        double uniform = mRandom.nextDouble();
+        return mBreeds[(int) (uniform * uniform * mBreeds.length)];
+    }
+
+    private static String[] buildBreeds() {
+        String[] breeds = new String[BREED_PREFIXES.length * BREED_REGIONS.length * BREED_KINDS.length];
+        int i = 0;
+        for (String prefix : BREED_PREFIXES) {
+            for (String region : BREED_REGIONS) {
+                for (String kind : BREED_KINDS) {
+                    breeds[i++] = prefix + " " + region + " " + kind;
+                }
+            }
+        }
+        return breeds;
+    }
+
+    private static int drain(Cursor cursor) {
+        int rows = 0;
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
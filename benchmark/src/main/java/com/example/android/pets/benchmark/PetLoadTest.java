@@ -0,0 +1,134 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetDBHelper;
+import com.example.android.pets.data.PetDatasetGenerator;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Scaling curves for PetProvider. One database is grown through each size in
+ * {@code pets.loadtest.sizes}, 10^3 to 10^7 pets by default, with pets from
+ * {@link PetDatasetGenerator} loaded through bulkInsert. At every step it records the insert rate
+ * for that step's rows, the time to load the catalog's first page by insertion order and a page
+ * by name, single-pet lookups by _ID, and the database size including the WAL. Results are
+ * rewritten to {@code pets.benchmark.output}/loadtest.json after every step, so a long run that
+ * is stopped early still leaves the smaller sizes behind.
+ * <p>
+ * The same Robolectric caveats as {@link PetProviderBenchmark} apply: compare runs of this test
+ * with each other, not with a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetLoadTest {
+    private static final String DEFAULT_SIZES = "1000,10000,100000,1000000,10000000";
+    private static final int WARMUP_OPERATIONS = 50;
+    private static final int MEASURED_OPERATIONS = 500;
+    // Matches CatalogActivity
+    private static final int PAGE_SIZE = 50;
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_GENDER};
+
+    private final Random mRandom = new Random(7);
+
+    @Test
+    public void loadTestPetProvider() throws IOException {
+        File output = new File(System.getProperty("pets.benchmark.output", "build/benchmark"), "loadtest.json");
+        RuntimeEnvironment.application.deleteDatabase(PetDBHelper.DATABASE_NAME);
+        PetProvider provider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        PetDatasetGenerator generator = new PetDatasetGenerator();
+        BenchmarkHarness harness = new BenchmarkHarness(WARMUP_OPERATIONS, MEASURED_OPERATIONS);
+        int tableSize = 0;
+        try {
+            for (String size : System.getProperty("pets.loadtest.sizes", DEFAULT_SIZES).split(",")) {
+                int targetSize = Integer.parseInt(size.trim());
+                if (targetSize <= tableSize) {
+                    continue;
+                }
+                grow(harness, provider, generator, tableSize, targetSize);
+                tableSize = targetSize;
+                measureReads(harness, provider, tableSize);
+                File database = RuntimeEnvironment.application.getDatabasePath(PetDBHelper.DATABASE_NAME);
+                File wal = new File(database.getPath() + "-wal");
+                harness.record("databaseBytes", tableSize, database.length() + wal.length());
+                harness.writeJson(output);
+            }
+        } finally {
+            provider.shutdown();
+            RuntimeEnvironment.application.deleteDatabase(PetDBHelper.DATABASE_NAME);
+        }
+    }
+
+    private void grow(BenchmarkHarness harness, PetProvider provider, PetDatasetGenerator generator, int fromSize, int toSize) {
+        long startTime = System.nanoTime();
+        for (int remaining = toSize - fromSize; remaining > 0; ) {
+            int chunk = Math.min(PetDatasetGenerator.LOAD_CHUNK_SIZE, remaining);
+            provider.bulkInsert(PetEntry.CONTENT_URI, generator.next(chunk));
+            remaining -= chunk;
+        }
+        long elapsedNanos = Math.max(System.nanoTime() - startTime, 1);
+        harness.record("insertRowsPerSecond", toSize, (toSize - fromSize) * 1000000000L / elapsedNanos);
+    }
+
+    private void measureReads(BenchmarkHarness harness, final PetProvider provider, final int tableSize) {
+        harness.measure("catalogFirstPage", tableSize, new BenchmarkHarness.Operation() {
+            @Override
+            public void run(int invocation) {
+                drain(provider.query(PetEntry.buildPageUri(PAGE_SIZE, PetEntry._ID, null, -1),
+                        CATALOG_PROJECTION, null, null, null));
+            }
+        });
+
+        // Pages by name resume from a random pet's name, as scrolling an alphabetical list would
+        final PetDatasetGenerator names = new PetDatasetGenerator(mRandom.nextLong());
+        harness.measure("catalogNamePage", tableSize, new BenchmarkHarness.Operation() {
+            @Override
+            public void run(int invocation) {
+                String afterName = names.next().getAsString(PetEntry.COLUMN_PET_NAME);
+                drain(provider.query(PetEntry.buildPageUri(PAGE_SIZE, PetEntry.COLUMN_PET_NAME, afterName, 0),
+                        CATALOG_PROJECTION, null, null, null));
+            }
+        });
+
+        harness.measure("queryById", tableSize, new BenchmarkHarness.Operation() {
+            @Override
+            public void run(int invocation) {
+                long id = 1 + mRandom.nextInt(tableSize);
+                drain(provider.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                        PetEntry.PET_COLUMN_LIST, null, null, null));
+            }
+        });
+    }
+
+    private static int drain(Cursor cursor) {
+        int rows = 0;
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getString(1);
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
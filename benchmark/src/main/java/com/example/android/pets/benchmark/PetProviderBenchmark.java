@@ -0,0 +1,210 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetChangeEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetCriteria;
+import com.example.android.pets.data.PetDBHelper;
+import com.example.android.pets.data.PetProvider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Throughput of the PetProvider read and write paths against Robolectric's SQLite, at each table
+ * size in the {@code pets.benchmark.sizes} system property. Each size starts from an empty
+ * database, is filled through bulkInsert, then every operation is timed against it. Results are
+ * written to {@code pets.benchmark.output}/petprovider-&lt;size&gt;.json.
+ * <p>
+ * Robolectric runs SQLite through a host build of the library and funnels every connection
+ * through one thread, so numbers compare runs of this harness with each other, not with a
+ * device, and say nothing about reader/writer concurrency.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetProviderBenchmark {
+    private static final String DEFAULT_SIZES = "1000,100000,1000000";
+    private static final int FILL_CHUNK_SIZE = 10000;
+    private static final int BULK_INSERT_SIZE = 1000;
+    private static final int WARMUP_OPERATIONS = 200;
+    private static final int MEASURED_OPERATIONS = 2000;
+    private static final int MAX_WEIGHT = 60;
+    private static final String[] BREEDS = {
+            "Tabby", "Siamese", "Persian", "Maine Coon", "Beagle", "Labrador", "Poodle", "Terrier", null};
+
+    private final Random mRandom = new Random(42);
+
+    @Test
+    public void benchmarkPetProvider() throws IOException {
+        File outputDir = new File(System.getProperty("pets.benchmark.output", "build/benchmark"));
+        for (String size : System.getProperty("pets.benchmark.sizes", DEFAULT_SIZES).split(",")) {
+            runAtSize(Integer.parseInt(size.trim()), outputDir);
+        }
+    }
+
+    private void runAtSize(final int tableSize, File outputDir) throws IOException {
+        RuntimeEnvironment.application.deleteDatabase(PetDBHelper.DATABASE_NAME);
+        final PetProvider provider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        BenchmarkHarness harness = new BenchmarkHarness(WARMUP_OPERATIONS, MEASURED_OPERATIONS);
+        try {
+            fill(provider, tableSize);
+            File database = RuntimeEnvironment.application.getDatabasePath(PetDBHelper.DATABASE_NAME);
+            harness.record("databaseBytes", tableSize, database.length());
+
+            final List<Long> insertedIds = new ArrayList<>();
+            harness.measure("insert", tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    Uri uri = provider.insert(PetEntry.CONTENT_URI, randomPet());
+                    insertedIds.add(ContentUris.parseId(uri));
+                }
+            });
+
+            final ContentValues[] batch = new ContentValues[BULK_INSERT_SIZE];
+            harness.measure("bulkInsert", tableSize, 5, 20, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    for (int i = 0; i < batch.length; i++) {
+                        batch[i] = randomPet();
+                    }
+                    provider.bulkInsert(PetEntry.CONTENT_URI, batch);
+                }
+            });
+
+            harness.measure("queryById", tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    // Spread over the whole table so most reads miss the row cache
+                    long id = 1 + mRandom.nextInt(tableSize);
+                    drain(provider.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                            PetEntry.PET_COLUMN_LIST, null, null, null));
+                }
+            });
+
+            // A full scan is O(n), so fewer iterations keep the largest sizes bounded
+            int scans = Math.max(3, Math.min(50, 10000000 / Math.max(tableSize, 1)));
+            harness.measure("fullScan", tableSize, 1, scans, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    drain(provider.query(PetEntry.CONTENT_URI, PetEntry.PET_COLUMN_LIST, null, null, null));
+                }
+            });
+
+            harness.measure("filteredQuery", tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    int weight = 1 + mRandom.nextInt(MAX_WEIGHT);
+                    drain(provider.query(PetEntry.CONTENT_URI.buildUpon()
+                                    .appendQueryParameter(PetContract.QUERY_PARAM_LIMIT, "100").build(),
+                            PetEntry.PET_COLUMN_LIST,
+                            PetEntry.COLUMN_PET_GENDER + " = ? AND " + PetEntry.COLUMN_PET_WEIGHT + " BETWEEN ? AND ?",
+                            new String[] {String.valueOf(mRandom.nextInt(3)), String.valueOf(weight), String.valueOf(weight + 2)},
+                            PetEntry.COLUMN_PET_WEIGHT));
+                }
+            });
+
+            harness.measure("breedQuery", tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    PetCriteria criteria = new PetCriteria.Builder()
+                            .breed(BREEDS[mRandom.nextInt(BREEDS.length)])
+                            .build();
+                    drain(provider.query(PetEntry.CONTENT_URI.buildUpon()
+                                    .appendQueryParameter(PetContract.QUERY_PARAM_LIMIT, "100").build(),
+                            PetEntry.PET_COLUMN_LIST, criteria.getSelection(), criteria.getSelectionArgs(), PetEntry._ID));
+                }
+            });
+
+            harness.measure("update", tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    ContentValues values = new ContentValues();
+                    values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + mRandom.nextInt(MAX_WEIGHT));
+                    provider.update(ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1 + mRandom.nextInt(tableSize)),
+                            values, null, null);
+                }
+            });
+
+            // What a catalog pays to catch up after one edit, against refetching its first page
+            final long latestSequence = provider.call(PetContract.METHOD_GET_CHANGE_SEQUENCE, null, null)
+                    .getLong(PetContract.EXTRA_CHANGE_SEQUENCE);
+            harness.measure("changesSinceEdit", tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    drain(provider.query(PetChangeEntry.buildChangesSinceUri(latestSequence - 1), null, null, null, null));
+                }
+            });
+            harness.measure("firstPage", tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    drain(provider.query(PetEntry.buildPageUri(50, PetEntry._ID, null, -1), PetEntry.PET_COLUMN_LIST, null, null, null));
+                }
+            });
+
+            // Deletes the rows the insert benchmark added, so the table is back to its nominal size
+            harness.measure("delete", tableSize, 0, Math.min(MEASURED_OPERATIONS, insertedIds.size()),
+                    new BenchmarkHarness.Operation() {
+                        @Override
+                        public void run(int invocation) {
+                            provider.delete(ContentUris.withAppendedId(PetEntry.CONTENT_URI, insertedIds.get(invocation)),
+                                    null, null);
+                        }
+                    });
+        } finally {
+            provider.shutdown();
+        }
+        harness.writeJson(new File(outputDir, "petprovider-" + tableSize + ".json"));
+    }
+
+    private void fill(PetProvider provider, int tableSize) {
+        ContentValues[] chunk = new ContentValues[Math.min(FILL_CHUNK_SIZE, Math.max(tableSize, 1))];
+        int remaining = tableSize;
+        while (remaining > 0) {
+            int count = Math.min(chunk.length, remaining);
+            ContentValues[] rows = count == chunk.length ? chunk : new ContentValues[count];
+            for (int i = 0; i < count; i++) {
+                rows[i] = randomPet();
+            }
+            provider.bulkInsert(PetEntry.CONTENT_URI, rows);
+            remaining -= count;
+        }
+    }
+
+    private ContentValues randomPet() {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, "Pet " + Integer.toString(mRandom.nextInt(1000000), 36));
+        values.put(PetEntry.COLUMN_PET_BREED, BREEDS[mRandom.nextInt(BREEDS.length)]);
+        values.put(PetEntry.COLUMN_PET_GENDER, mRandom.nextInt(3));
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 1 + mRandom.nextInt(MAX_WEIGHT));
+        return values;
+    }
+
+    private static int drain(Cursor cursor) {
+        int rows = 0;
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getString(1);
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,206 @@
+package com.example.android.pets.benchmark;
+
+import android.content.ContentUris;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract;
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+import com.example.android.pets.data.PetDBHelper;
+import com.example.android.pets.data.PetDatasetGenerator;
+import com.example.android.pets.data.PetProvider;
+import com.example.android.pets.data.PetShardedStore;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * PetProvider with its pets spread over each shard count in {@code pets.shards.counts}. For each,
+ * a fresh set of databases is filled with {@code pets.shards.size} pets, then it records the
+ * insert rate of {@link #WRITER_THREADS} threads inserting single pets at once, and times the
+ * fanned-out reads: catalog pages by _ID and by name, lookups by _ID and the breed summary.
+ * Results are written to {@code pets.benchmark.output}/shards.json, with the shard count in each
+ * benchmark name.
+ * <p>
+ * Besides the caveats of {@link PetProviderBenchmark}, Robolectric runs every SQLite call from
+ * every connection on one thread, so shards can't write or read in parallel here. These numbers
+ * show what fan-out and merging cost; how writes scale with shards has to be measured on a device.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetShardBenchmark {
+    private static final String DEFAULT_SHARD_COUNTS = "1,2,4,8";
+    private static final int DEFAULT_SIZE = 100000;
+    private static final int WRITER_THREADS = 4;
+    private static final int INSERTS_PER_WRITER = 500;
+    private static final int WARMUP_OPERATIONS = 50;
+    private static final int MEASURED_OPERATIONS = 500;
+    // Matches CatalogActivity
+    private static final int PAGE_SIZE = 50;
+    private static final String[] CATALOG_PROJECTION = {
+            PetEntry._ID,
+            PetEntry.COLUMN_PET_NAME,
+            PetEntry.COLUMN_PET_BREED,
+            PetEntry.COLUMN_PET_WEIGHT,
+            PetEntry.COLUMN_PET_GENDER};
+
+    /**
+     * PetProvider with the shard count set here rather than from resources, since
+     * {@link Robolectric#setupContentProvider} creates the provider itself.
+     */
+    public static class ShardedPetProvider extends PetProvider {
+        static volatile int sShardCount = 1;
+
+        @Override
+        protected int getShardCount() {
+            return sShardCount;
+        }
+    }
+
+    private final Random mRandom = new Random(11);
+
+    @Test
+    public void benchmarkShards() throws Exception {
+        File output = new File(System.getProperty("pets.benchmark.output", "build/benchmark"), "shards.json");
+        int size = Integer.parseInt(System.getProperty("pets.shards.size", String.valueOf(DEFAULT_SIZE)).trim());
+        BenchmarkHarness harness = new BenchmarkHarness(WARMUP_OPERATIONS, MEASURED_OPERATIONS);
+        for (String shards : System.getProperty("pets.shards.counts", DEFAULT_SHARD_COUNTS).split(",")) {
+            runWithShards(harness, Integer.parseInt(shards.trim()), size);
+        }
+        harness.writeJson(output);
+    }
+
+    private void runWithShards(BenchmarkHarness harness, int shardCount, final int tableSize) throws Exception {
+        deleteDatabases(shardCount);
+        ShardedPetProvider.sShardCount = shardCount;
+        final PetProvider provider = Robolectric.setupContentProvider(ShardedPetProvider.class, PetContract.CONTENT_AUTHORITY);
+        String suffix = "-" + shardCount + "shards";
+        try {
+            PetDatasetGenerator generator = new PetDatasetGenerator();
+            final List<Long> ids = new ArrayList<>(tableSize);
+            for (int remaining = tableSize; remaining > 0; ) {
+                int chunk = Math.min(PetDatasetGenerator.LOAD_CHUNK_SIZE, remaining);
+                provider.bulkInsert(PetEntry.CONTENT_URI, generator.next(chunk));
+                remaining -= chunk;
+            }
+            // Shards number their pets from separate bases, so lookups need the real ids
+            Cursor idCursor = provider.query(PetEntry.CONTENT_URI, new String[] {PetEntry._ID}, null, null, null);
+            try {
+                while (idCursor.moveToNext()) {
+                    ids.add(idCursor.getLong(0));
+                }
+            } finally {
+                idCursor.close();
+            }
+
+            harness.record("concurrentInsertRowsPerSecond" + suffix, tableSize, insertConcurrently(provider));
+
+            harness.measure("catalogFirstPage" + suffix, tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    drain(provider.query(PetEntry.buildPageUri(PAGE_SIZE, PetEntry._ID, null, -1),
+                            CATALOG_PROJECTION, null, null, null));
+                }
+            });
+
+            final PetDatasetGenerator names = new PetDatasetGenerator(mRandom.nextLong());
+            harness.measure("catalogNamePage" + suffix, tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    String afterName = names.next().getAsString(PetEntry.COLUMN_PET_NAME);
+                    drain(provider.query(PetEntry.buildPageUri(PAGE_SIZE, PetEntry.COLUMN_PET_NAME, afterName, 0),
+                            CATALOG_PROJECTION, null, null, null));
+                }
+            });
+
+            harness.measure("queryById" + suffix, tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    long id = ids.get(mRandom.nextInt(ids.size()));
+                    drain(provider.query(ContentUris.withAppendedId(PetEntry.CONTENT_URI, id),
+                            PetEntry.PET_COLUMN_LIST, null, null, null));
+                }
+            });
+
+            harness.measure("topBreeds" + suffix, tableSize, new BenchmarkHarness.Operation() {
+                @Override
+                public void run(int invocation) {
+                    drain(provider.query(PetStatsEntry.BREEDS_URI, null, null, null, null));
+                }
+            });
+        } finally {
+            provider.shutdown();
+            deleteDatabases(shardCount);
+        }
+    }
+
+    /**
+     * Starts {@link #WRITER_THREADS} threads together, each inserting {@link #INSERTS_PER_WRITER}
+     * pets one at a time, and returns the combined rows per second.
+     */
+    private long insertConcurrently(final PetProvider provider) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] writers = new Thread[WRITER_THREADS];
+        for (int i = 0; i < writers.length; i++) {
+            final PetDatasetGenerator generator = new PetDatasetGenerator(mRandom.nextLong());
+            writers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        for (int j = 0; j < INSERTS_PER_WRITER; j++) {
+                            provider.insert(PetEntry.CONTENT_URI, generator.next());
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            });
+            writers[i].start();
+        }
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        long elapsedNanos = Math.max(System.nanoTime() - startTime, 1);
+        if (failure.get() != null) {
+            throw new IllegalStateException("Writer failed", failure.get());
+        }
+        return WRITER_THREADS * INSERTS_PER_WRITER * 1000000000L / elapsedNanos;
+    }
+
+    private static void deleteDatabases(int shardCount) {
+        RuntimeEnvironment.application.deleteDatabase(PetDBHelper.DATABASE_NAME);
+        for (int i = 0; i < shardCount; i++) {
+            RuntimeEnvironment.application.deleteDatabase(PetShardedStore.getDatabaseName(i));
+        }
+    }
+
+    private static int drain(Cursor cursor) {
+        int rows = 0;
+        try {
+            while (cursor.moveToNext()) {
+                cursor.getLong(0);
+                cursor.getString(1);
+                rows++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,127 @@
+package com.example.android.pets.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.pets.data.PetContract.ImportProgressEntry;
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Regression tests for PetImporter checkpoints, which commit in the same transaction as the rows
+ * they cover.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "../app/src/main/AndroidManifest.xml", sdk = 23)
+public class PetImporterTest {
+    private static final String IMPORT_ID = "test-import";
+    private static final String CSV = "name,breed,gender,weight\n"
+            + "Rex,Tabby,1,4\n"
+            + "Tom,,0,6\n"
+            + "Kit,Siamese,2,3\n"
+            + "Max,Beagle,1,12\n";
+
+    private PetProvider mProvider;
+    private PetImporter mImporter;
+
+    @Before
+    public void setUp() {
+        RuntimeEnvironment.application.deleteDatabase(PetDBHelper.DATABASE_NAME);
+        mProvider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+        mImporter = new PetImporter(RuntimeEnvironment.application).setChunkSize(3);
+        mImporter.clearCheckpoint(IMPORT_ID);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        RuntimeEnvironment.application.deleteDatabase(PetDBHelper.DATABASE_NAME);
+    }
+
+    @Test
+    public void importSavesCheckpoint() throws Exception {
+        PetImporter.Result result = mImporter.importCsv(IMPORT_ID, csv());
+
+        assertEquals(4, result.rowsImported);
+        assertEquals(4, mImporter.getCheckpoint(IMPORT_ID));
+        assertEquals(4, countPets());
+    }
+
+    @Test
+    public void failedChunkDoesNotAdvanceCheckpoint() {
+        ContentValues invalid = pet("Tom");
+        invalid.putNull(PetEntry.COLUMN_PET_NAME);
+        try {
+            mProvider.bulkInsert(ImportProgressEntry.buildCheckpointUri(IMPORT_ID, 2),
+                    new ContentValues[] {pet("Rex"), invalid});
+            fail("Expected the invalid row to fail the chunk");
+        } catch (IllegalArgumentException expected) {
+        }
+
+        assertEquals(0, mImporter.getCheckpoint(IMPORT_ID));
+        assertEquals(0, countPets());
+    }
+
+    /**
+     * A chunk whose rows and checkpoint committed before a crash is skipped on resume rather than
+     * imported again.
+     */
+    @Test
+    public void resumeSkipsCommittedChunk() throws Exception {
+        mProvider.bulkInsert(ImportProgressEntry.buildCheckpointUri(IMPORT_ID, 2),
+                new ContentValues[] {pet("Rex"), pet("Tom")});
+
+        PetImporter.Result result = mImporter.importCsv(IMPORT_ID, csv());
+
+        assertEquals(2, result.resumedFrom);
+        assertEquals(2, result.rowsImported);
+        assertEquals(4, mImporter.getCheckpoint(IMPORT_ID));
+        assertEquals(4, countPets());
+    }
+
+    @Test
+    public void clearCheckpointRestartsImport() throws Exception {
+        mImporter.importCsv(IMPORT_ID, csv());
+        mImporter.clearCheckpoint(IMPORT_ID);
+
+        assertEquals(0, mImporter.getCheckpoint(IMPORT_ID));
+        assertEquals(4, mImporter.importCsv(IMPORT_ID, csv()).rowsImported);
+    }
+
+    private static InputStream csv() {
+        return new ByteArrayInputStream(CSV.getBytes(Charset.forName("UTF-8")));
+    }
+
+    private static ContentValues pet(String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, "Tabby");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 4);
+        return values;
+    }
+
+    private int countPets() {
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[] {PetEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}
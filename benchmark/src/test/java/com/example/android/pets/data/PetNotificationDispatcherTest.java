@@ -0,0 +1,101 @@
+package com.example.android.pets.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.net.Uri;
+import android.os.Looper;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Regression tests for PetNotificationDispatcher, whose suspension only holds back the suspended
+ * thread's notifications.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE, sdk = 23)
+public class PetNotificationDispatcherTest {
+    private static final long TIMEOUT_SECONDS = 10;
+
+    private ContentResolver mResolver;
+    private PetNotificationDispatcher mDispatcher;
+
+    @Before
+    public void setUp() {
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mDispatcher = new PetNotificationDispatcher(mResolver, Looper.getMainLooper(), PetNotificationDispatcher.DEFAULT_WINDOW_MILLIS);
+    }
+
+    @Test
+    public void suspendedThreadDoesNotHoldBackOthers() throws Exception {
+        final Uri batchUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+        Uri otherUri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 2);
+        final CountDownLatch suspended = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Thread batch = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mDispatcher.suspend();
+                mDispatcher.notifyChange(batchUri);
+                suspended.countDown();
+                try {
+                    release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                mDispatcher.resume();
+            }
+        });
+        batch.start();
+        assertTrue(suspended.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        mDispatcher.notifyChange(otherUri);
+        mDispatcher.flush();
+        assertEquals(Arrays.asList(otherUri), notifiedUris());
+
+        release.countDown();
+        batch.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+        mDispatcher.flush();
+        assertEquals(Arrays.asList(otherUri, batchUri), notifiedUris());
+    }
+
+    @Test
+    public void nestedSuspendHoldsUntilLastResume() {
+        Uri uri = ContentUris.withAppendedId(PetEntry.CONTENT_URI, 1);
+        mDispatcher.suspend();
+        mDispatcher.suspend();
+        mDispatcher.notifyChange(uri);
+        mDispatcher.resume();
+        mDispatcher.flush();
+        assertEquals(0, notifiedUris().size());
+
+        mDispatcher.resume();
+        mDispatcher.flush();
+        assertEquals(Arrays.asList(uri), notifiedUris());
+    }
+
+    private List<Uri> notifiedUris() {
+        List<Uri> uris = new ArrayList<>();
+        for (ShadowContentResolver.NotifiedUri notified : shadowOf(mResolver).getNotifiedUris()) {
+            uris.add(notified.uri);
+        }
+        return uris;
+    }
+}
@@ -0,0 +1,308 @@
+package com.example.android.pets.data;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.pets.data.PetContract.PetEntry;
+import com.example.android.pets.data.PetContract.PetStatsEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Regression tests for PetProvider against Robolectric's SQLite. The app manifest is loaded so
+ * the provider's error messages resolve from its string resources.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = "../app/src/main/AndroidManifest.xml", sdk = 23)
+public class PetProviderTest {
+    private static final long DEADLOCK_TIMEOUT_MILLIS = 30000;
+    private static final int BATCHES = 20;
+    private static final int BATCH_SIZE = 25;
+    private static final int SHARD_COUNT = 4;
+
+    /**
+     * PetProvider spread over {@link #SHARD_COUNT} shards.
+     */
+    public static class ShardedPetProvider extends PetProvider {
+        @Override
+        protected int getShardCount() {
+            return SHARD_COUNT;
+        }
+    }
+
+    private PetProvider mProvider;
+
+    @Before
+    public void setUp() {
+        deleteDatabases();
+        mProvider = Robolectric.setupContentProvider(PetProvider.class, PetContract.CONTENT_AUTHORITY);
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+        deleteDatabases();
+    }
+
+    /**
+     * One thread applies batches, as PetWriteQueue does, while another inserts single pets. Both
+     * take the write connection and the statement cache monitor, and must finish.
+     */
+    @Test
+    public void insertDuringApplyBatchDoesNotDeadlock() throws Exception {
+        insertDuringApplyBatch();
+    }
+
+    /**
+     * As above with several shards, where a batch holds transactions on the shards it writes to
+     * while single inserts rotate over all of them.
+     */
+    @Test
+    public void shardedInsertDuringApplyBatchDoesNotDeadlock() throws Exception {
+        mProvider.shutdown();
+        mProvider = Robolectric.setupContentProvider(ShardedPetProvider.class, PetContract.CONTENT_AUTHORITY);
+        insertDuringApplyBatch();
+    }
+
+    private void insertDuringApplyBatch() throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread batcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for (int i = 0; i < BATCHES; i++) {
+                        ArrayList<ContentProviderOperation> operations = new ArrayList<>(BATCH_SIZE);
+                        for (int j = 0; j < BATCH_SIZE; j++) {
+                            operations.add(ContentProviderOperation.newInsert(PetEntry.CONTENT_URI)
+                                    .withValues(pet("Batched " + i + "-" + j)).build());
+                        }
+                        mProvider.applyBatch(operations);
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        });
+        Thread inserter = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    start.await();
+                    for (int i = 0; i < BATCHES * BATCH_SIZE; i++) {
+                        mProvider.insert(PetEntry.CONTENT_URI, pet("Single " + i));
+                    }
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        });
+        batcher.setDaemon(true);
+        inserter.setDaemon(true);
+        batcher.start();
+        inserter.start();
+        start.countDown();
+        batcher.join(DEADLOCK_TIMEOUT_MILLIS);
+        inserter.join(DEADLOCK_TIMEOUT_MILLIS);
+
+        assertFalse("applyBatch did not finish", batcher.isAlive());
+        assertFalse("insert did not finish", inserter.isAlive());
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertEquals(2 * BATCHES * BATCH_SIZE, countPets());
+    }
+
+    /**
+     * Sharded reads are merged as the cursor moves; moving back must return the rows already
+     * passed, and the count must cover the rows not yet merged.
+     */
+    @Test
+    public void shardedQueryMergesInOrder() {
+        mProvider.shutdown();
+        mProvider = Robolectric.setupContentProvider(ShardedPetProvider.class, PetContract.CONTENT_AUTHORITY);
+        String[] names = {"Tom", "Ada", "rex", "Max", "Bo", "Kit", "Zed", "Ada"};
+        for (String name : names) {
+            mProvider.insert(PetEntry.CONTENT_URI, pet(name));
+        }
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[] {PetEntry.COLUMN_PET_NAME},
+                null, null, PetEntry.COLUMN_PET_NAME);
+        try {
+            String[] sorted = names.clone();
+            Arrays.sort(sorted);
+            assertTrue(cursor.moveToPosition(2));
+            assertEquals(sorted[2], cursor.getString(0));
+            assertTrue(cursor.moveToFirst());
+            assertEquals(sorted[0], cursor.getString(0));
+            for (int i = 1; i < sorted.length; i++) {
+                assertTrue(cursor.moveToNext());
+                assertEquals(sorted[i], cursor.getString(0));
+            }
+            assertFalse(cursor.moveToNext());
+            assertEquals(sorted.length, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void updateWithNullBreedClearsIt() {
+        Uri uri = mProvider.insert(PetEntry.CONTENT_URI, pet("Rex"));
+        ContentValues values = new ContentValues();
+        values.putNull(PetEntry.COLUMN_PET_BREED);
+
+        assertEquals(1, mProvider.update(uri, values, null, null));
+        assertNull(readBreed(uri));
+        // Already NULL, so nothing changes
+        assertEquals(0, mProvider.update(uri, values, null, null));
+    }
+
+    @Test
+    public void updateBySelectionWithNullBreedClearsIt() {
+        Uri uri = mProvider.insert(PetEntry.CONTENT_URI, pet("Rex"));
+        ContentValues values = new ContentValues();
+        values.putNull(PetEntry.COLUMN_PET_BREED);
+
+        assertEquals(1, mProvider.update(PetEntry.CONTENT_URI, values,
+                PetEntry._ID + " = ?", new String[] {String.valueOf(ContentUris.parseId(uri))}));
+        assertNull(readBreed(uri));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void updateWithNullNameIsRejected() {
+        Uri uri = mProvider.insert(PetEntry.CONTENT_URI, pet("Rex"));
+        ContentValues values = new ContentValues();
+        values.putNull(PetEntry.COLUMN_PET_NAME);
+        mProvider.update(uri, values, null, null);
+    }
+
+    @Test
+    public void breedStatsKeepNoBreedApartFromEmptyBreed() {
+        ContentValues noBreed = pet("Rex");
+        noBreed.putNull(PetEntry.COLUMN_PET_BREED);
+        mProvider.insert(PetEntry.CONTENT_URI, noBreed);
+        mProvider.insert(PetEntry.CONTENT_URI, noBreed);
+        ContentValues emptyBreed = pet("Tom");
+        emptyBreed.put(PetEntry.COLUMN_PET_BREED, "");
+        Uri emptyUri = mProvider.insert(PetEntry.CONTENT_URI, emptyBreed);
+
+        Cursor cursor = mProvider.query(PetStatsEntry.BREEDS_URI,
+                new String[] {PetEntry.COLUMN_PET_BREED, PetStatsEntry.COLUMN_COUNT}, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertTrue(cursor.isNull(0));
+            assertEquals(2, cursor.getLong(1));
+            cursor.moveToNext();
+            assertEquals("", cursor.getString(0));
+            assertEquals(1, cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+
+        // Clearing the breed moves the pet into the no-breed row and drops the empty one
+        ContentValues clear = new ContentValues();
+        clear.putNull(PetEntry.COLUMN_PET_BREED);
+        mProvider.update(emptyUri, clear, null, null);
+        cursor = mProvider.query(PetStatsEntry.BREEDS_URI, null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertTrue(cursor.isNull(cursor.getColumnIndexOrThrow(PetEntry.COLUMN_PET_BREED)));
+            assertEquals(3, cursor.getLong(cursor.getColumnIndexOrThrow(PetStatsEntry.COLUMN_COUNT)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Query metrics don't count a cursor's rows up front: they record the count once the caller
+     * asks for it, or else the rows it moved through by the time it closes the cursor.
+     */
+    @Test
+    public void queryMetricsRecordRowsOnceKnown() {
+        for (String name : new String[] {"Rex", "Tom", "Kit"}) {
+            mProvider.insert(PetEntry.CONTENT_URI, pet(name));
+        }
+        mProvider.call(PetContract.METHOD_RESET_METRICS, null, null);
+
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[] {PetEntry._ID}, null, null, null);
+        assertEquals(0, queryRows());
+        cursor.moveToNext();
+        cursor.moveToNext();
+        cursor.close();
+        assertEquals(2, queryRows());
+
+        countPets();
+        assertEquals(5, queryRows());
+    }
+
+    private long queryRows() {
+        Bundle operations = mProvider.call(PetContract.METHOD_GET_METRICS, null, null)
+                .getBundle(PetContract.EXTRA_METRICS_OPERATIONS);
+        long rows = 0;
+        for (String key : operations.keySet()) {
+            if (key.startsWith("query:")) {
+                rows += operations.getBundle(key).getLong(PetMetrics.KEY_ROWS);
+            }
+        }
+        return rows;
+    }
+
+    private String readBreed(Uri uri) {
+        Cursor cursor = mProvider.query(uri, new String[] {PetEntry.COLUMN_PET_BREED}, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getString(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static void deleteDatabases() {
+        RuntimeEnvironment.application.deleteDatabase(PetDBHelper.DATABASE_NAME);
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            RuntimeEnvironment.application.deleteDatabase(PetShardedStore.getDatabaseName(i));
+        }
+    }
+
+    private static ContentValues pet(String name) {
+        ContentValues values = new ContentValues();
+        values.put(PetEntry.COLUMN_PET_NAME, name);
+        values.put(PetEntry.COLUMN_PET_BREED, "Tabby");
+        values.put(PetEntry.COLUMN_PET_GENDER, PetEntry.GENDER_FEMALE);
+        values.put(PetEntry.COLUMN_PET_WEIGHT, 4);
+        return values;
+    }
+
+    private int countPets() {
+        Cursor cursor = mProvider.query(PetEntry.CONTENT_URI, new String[] {PetEntry._ID}, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+}